@@ -26,7 +26,8 @@ public interface VcdNotificationListener {
      * Entities that are recognized by the {@link VcdNotificationListener}
      */
     enum EntityType {
-        VC("vc");
+        VC("vc"),
+        TASK("task");
 
         private final String key;
 
@@ -0,0 +1,11 @@
+/* *
+ * api-extension-template-vcloud-director
+ * Copyright (c) 2017-2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * */
+package com.vmware.vcloud.object.extensibility.vcd.event.task;
+
+import com.vmware.vcloud.object.extensibility.vcd.event.AbstractVcdEvent;
+
+public class TaskCompleteEvent extends AbstractVcdEvent {
+}
@@ -0,0 +1,54 @@
+/* *
+ * api-extension-template-vcloud-director
+ * Copyright (c) 2017-2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * */
+package com.vmware.vcloud.object.extensibility.vcd.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.Subscribe;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.object.extensibility.vcd.VcdNotificationListener;
+import com.vmware.vcloud.object.extensibility.vcd.event.VcdEvent;
+import com.vmware.vcloud.object.extensibility.vcd.event.vc.VcDeleteEvent;
+
+/**
+ * An event handler that drops cached entity resolutions held by a {@link VcdClient} when vCloud
+ * Director reports the deletion of the corresponding entity. <p>
+ *
+ * Register an instance with a {@link VcdNotificationListener} that has notifications enabled for
+ * the entity types of interest:
+ * <pre>
+ * <code>
+ * listener.enableNotificationsForEntities(EntityType.VC);
+ * listener.registerEventHandler(new EntityResolverCacheInvalidator(vcdClient));
+ * </code>
+ * </pre>
+ *
+ * @see VcdClient#invalidateResolvedEntity(String)
+ */
+public class EntityResolverCacheInvalidator {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityResolverCacheInvalidator.class);
+
+    private final VcdClient vcdClient;
+
+    public EntityResolverCacheInvalidator(final VcdClient vcdClient) {
+        this.vcdClient = vcdClient;
+    }
+
+    @Subscribe
+    public void handleVcDelete(final VcDeleteEvent event) {
+        invalidate(event);
+    }
+
+    private void invalidate(final VcdEvent event) {
+        if (event.getEntity() == null || !event.isOperationSuccess()) {
+            return;
+        }
+
+        LOG.trace("Invalidating cached resolution of deleted entity {}", event.getEntity());
+        vcdClient.invalidateResolvedEntity(event.getEntity().toString());
+    }
+}
@@ -0,0 +1,222 @@
+/* *
+ * api-extension-template-vcloud-director
+ * Copyright (c) 2017-2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * */
+package com.vmware.vcloud.object.extensibility.vcd.support;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.Subscribe;
+import com.vmware.vcloud.api.rest.client.AsyncTaskMonitor;
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+import com.vmware.vcloud.api.rest.client.TaskStatusLookup;
+import com.vmware.vcloud.api.rest.client.TaskStatusLookup.TargetStatus;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+import com.vmware.vcloud.object.extensibility.vcd.VcdNotificationListener;
+import com.vmware.vcloud.object.extensibility.vcd.VcdNotificationListener.EntityType;
+import com.vmware.vcloud.object.extensibility.vcd.event.VcdEvent;
+import com.vmware.vcloud.object.extensibility.vcd.event.task.TaskAbortEvent;
+import com.vmware.vcloud.object.extensibility.vcd.event.task.TaskCompleteEvent;
+
+/**
+ * An {@link AsyncTaskMonitor} that learns of task completion from vCloud Director's AMQP
+ * notifications rather than by polling. <p>
+ *
+ * The monitor enables task notifications on the {@link VcdNotificationListener} it is given and
+ * registers itself as a handler for task completion events. When a notification arrives for a task
+ * being waited for, the task is fetched once and all of its waiters completed straight away. <p>
+ *
+ * Notifications can be lost, for example while the AMQP connection is re-established, so every
+ * {@value #RECONCILIATION_INTERVAL_SECS} seconds the monitor also looks up the status of all pending
+ * tasks with a {@link TaskStatusLookup}, and resolves any that have finished. Each task is also
+ * checked once as soon as it is waited for, in case it finished before the wait began.
+ * <pre>
+ * <code>
+ * final VcdNotificationListener listener = amqpSettingsManager.getVcdListener(amqpUser, amqpPassword);
+ * final NotificationTaskMonitor taskMonitor = new NotificationTaskMonitor(vcdClient, listener);
+ * taskMonitor.waitForSuccess(task, timeout).thenAccept(completedTask -&gt; ...);
+ * </code>
+ * </pre>
+ */
+public class NotificationTaskMonitor implements AsyncTaskMonitor, AutoCloseable {
+    private static final long RECONCILIATION_INTERVAL_SECS = 60L;
+    private static final int MAX_TASKS_PER_QUERY = TaskStatusLookup.MAX_TASKS_PER_QUERY;
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationTaskMonitor.class);
+
+    private final VcdClient vcdClient;
+    private final TaskStatusLookup statusLookup;
+    private final Map<String, Set<PendingTask>> pendingTasks = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private final ScheduledFuture<?> reconciliation;
+
+    /**
+     * @param vcdClient
+     *            client used to fetch tasks and reconcile their status
+     * @param notificationListener
+     *            listener on which task notifications are enabled and from which events are
+     *            received
+     */
+    public NotificationTaskMonitor(final VcdClient vcdClient, final VcdNotificationListener notificationListener) {
+        this.vcdClient = vcdClient;
+        this.statusLookup = new TaskStatusLookup(vcdClient);
+
+        executor = new ScheduledThreadPoolExecutor(2, runnable -> {
+            final Thread thread = new Thread(runnable, "vcd-task-notifications");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        reconciliation = executor.scheduleWithFixedDelay(this::reconcile,
+                RECONCILIATION_INTERVAL_SECS, RECONCILIATION_INTERVAL_SECS, TimeUnit.SECONDS);
+
+        notificationListener.registerEventHandler(this);
+        notificationListener.enableNotificationsForEntities(EntityType.TASK);
+    }
+
+    @Override
+    public CompletableFuture<TaskType> waitForSuccess(final TaskType task, final long timeoutInMillis) {
+        return waitForStatus(task, timeoutInMillis, TaskStatus.ERROR, TaskStatus.SUCCESS);
+    }
+
+    @Override
+    public CompletableFuture<TaskType> waitForStatus(final TaskType task, final long timeoutInMillis,
+            final TaskStatus failOnStatus, final TaskStatus... expectedTargetStatus) {
+        final PendingTask pendingTask = new PendingTask(task, new TargetStatus(failOnStatus, expectedTargetStatus));
+        pendingTasks.compute(task.getId(), (taskId, waiters) -> {
+            final Set<PendingTask> updated = (waiters == null) ? ConcurrentHashMap.newKeySet() : waiters;
+            updated.add(pendingTask);
+            return updated;
+        });
+
+        final ScheduledFuture<?> timeout = executor.schedule(() -> pendingTask.future.completeExceptionally(
+                new TimeoutException("Timed out after " + TimeUnit.MILLISECONDS.toSeconds(timeoutInMillis)
+                        + " seconds waiting for task: " + task.getHref())),
+                timeoutInMillis, TimeUnit.MILLISECONDS);
+        pendingTask.future.whenComplete((result, ex) -> {
+            timeout.cancel(false);
+            pendingTasks.computeIfPresent(task.getId(), (taskId, waiters) -> {
+                waiters.remove(pendingTask);
+                return waiters.isEmpty() ? null : waiters;
+            });
+        });
+
+        // The task may have completed before its notification could be matched to this wait
+        executor.execute(() -> fetchAndResolve(task.getId()));
+        return pendingTask.future;
+    }
+
+    @Subscribe
+    public void handleTaskComplete(final TaskCompleteEvent event) {
+        taskNotified(event);
+    }
+
+    @Subscribe
+    public void handleTaskAbort(final TaskAbortEvent event) {
+        taskNotified(event);
+    }
+
+    /**
+     * Stops reconciliation. Tasks still being waited for are left pending.
+     */
+    @Override
+    public void close() {
+        reconciliation.cancel(false);
+        executor.shutdown();
+    }
+
+    private void taskNotified(final VcdEvent event) {
+        if (event.getEntity() == null) {
+            return;
+        }
+        final String taskId = event.getEntity().toString();
+        if (pendingTasks.containsKey(taskId)) {
+            LOG.trace("Received completion notification for task {}", taskId);
+            executor.execute(() -> fetchAndResolve(taskId));
+        }
+    }
+
+    private void reconcile() {
+        final List<String> taskIds = new ArrayList<>(pendingTasks.keySet());
+        for (int i = 0; i < taskIds.size(); i += MAX_TASKS_PER_QUERY) {
+            final List<String> batch = taskIds.subList(i, Math.min(taskIds.size(), i + MAX_TASKS_PER_QUERY));
+            final Map<String, String> statuses;
+            try {
+                statuses = statusLookup.queryStatuses(batch);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to query status of {} pending tasks", batch.size(), e);
+                continue;
+            }
+            for (final String taskId : batch) {
+                final String status = statuses.get(taskId);
+                if (status == null || getWaiters(taskId).stream()
+                        .anyMatch(pendingTask -> pendingTask.targetStatus.isFinal(status))) {
+                    LOG.debug("Reconciling task {} with status {}", taskId, status);
+                    fetchAndResolve(taskId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the waits for the specified task that are still pending
+     */
+    private List<PendingTask> getWaiters(final String taskId) {
+        final Set<PendingTask> waiters = pendingTasks.get(taskId);
+        if (waiters == null) {
+            return Collections.emptyList();
+        }
+        return waiters.stream().filter(pendingTask -> !pendingTask.future.isDone()).collect(Collectors.toList());
+    }
+
+    /**
+     * Fetches the specified task once and resolves every wait for it.
+     */
+    private void fetchAndResolve(final String taskId) {
+        final List<PendingTask> waiters = getWaiters(taskId);
+        if (waiters.isEmpty()) {
+            return;
+        }
+        final String href = waiters.get(0).task.getHref();
+        final TaskType task;
+        try {
+            task = vcdClient.getResource(URI.create(href), TaskType.class);
+        } catch (RuntimeException e) {
+            // Left pending; the next reconciliation will try again
+            LOG.warn("Failed to fetch task {}", href, e);
+            return;
+        }
+        waiters.forEach(pendingTask -> pendingTask.targetStatus.resolve(task, pendingTask.future));
+    }
+
+    /**
+     * A task being waited for.
+     */
+    private static final class PendingTask {
+        private final TaskType task;
+        private final TargetStatus targetStatus;
+        private final CompletableFuture<TaskType> future = new CompletableFuture<>();
+
+        PendingTask(final TaskType task, final TargetStatus targetStatus) {
+            this.task = task;
+            this.targetStatus = targetStatus;
+        }
+    }
+}
@@ -35,6 +35,8 @@ public final class VcdClientFactory {
      * The client instance will use the provided credentials to immediately perform a login.  A single attempt
      * will be made to re-authenticate the {@link VcdClient} instance with the specified credentials in the event
      * that an {@link HttpURLConnection#HTTP_FORBIDDEN} status is received, which may indicate a session timeout.
+     * Threads sharing the client whose requests fail at the same time share a single re-authentication, see
+     * {@link VcdClient#reauthenticate()}.
      *
      * @param connectionInfo details about the vCloud Director API to connect to
      * @param credentials user credentials for API access
@@ -54,7 +56,7 @@ public final class VcdClientFactory {
 
                 LOG.debug("Re-establishing vCloud Director session for client {}", client);
                 try {
-                    ((VcdClient) client).setCredentials(credentials);
+                    ((VcdClient) client).reauthenticate();
                 } catch (final Exception exception) {
                     LOG.error("Failed to re-establish the vCloud Director session for client {}", client, exception);
                     return Disposition.FAIL;
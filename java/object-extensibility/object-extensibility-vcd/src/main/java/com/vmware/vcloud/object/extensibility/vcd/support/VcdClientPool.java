@@ -0,0 +1,496 @@
+/* *
+ * api-extension-template-vcloud-director
+ * Copyright (c) 2017-2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * */
+package com.vmware.vcloud.object.extensibility.vcd.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.vcloud.api.rest.client.ClientCredentials;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.object.extensibility.vcd.ApiConnectionInfo;
+
+/**
+ * A pool of authenticated {@link VcdClient} instances, each with its own session, kept per set of
+ * credentials and org context. <p>
+ *
+ * Clients are borrowed for the duration of a unit of work and returned by closing their
+ * {@link Lease}. At most {@link #setMaxClientsPerKey(int) maxClientsPerKey} clients exist for a
+ * given credentials and org context; borrowers wait for one to be returned beyond that. <p>
+ *
+ * So that bursts of requests do not wait on login round-trips, the pool keeps at least
+ * {@link #setMinIdleClientsPerKey(int) minIdleClientsPerKey} idle clients logged in for every
+ * credentials and org context it has seen, logging in replacements in the background as clients are
+ * borrowed. Clients idle for longer than {@link #setIdleTimeout(long, TimeUnit) idleTimeout} beyond
+ * that minimum are logged out. Idle clients not used for
+ * {@link #setValidationInterval(long, TimeUnit) validationInterval} are checked with
+ * {@link VcdClient#getSession()}, which also keeps their sessions alive, and replaced if their
+ * session is gone. <p>
+ *
+ * Clients are created with {@link VcdClientFactory#createVcdClient(ApiConnectionInfo, ClientCredentials)}.
+ * <pre>
+ * <code>
+ * final VcdClientPool pool = new VcdClientPool(connectionInfo);
+ * pool.prepare(credentials, orgId);
+ * ...
+ * try (VcdClientPool.Lease lease = pool.borrow(credentials, orgId, 30_000)) {
+ *     lease.getClient().getQuery(...);
+ * }
+ * </code>
+ * </pre>
+ */
+public class VcdClientPool implements AutoCloseable {
+    private static final int DEFAULT_MAX_CLIENTS_PER_KEY = 8;
+    private static final int DEFAULT_MIN_IDLE_CLIENTS_PER_KEY = 1;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAINTENANCE_INTERVAL_SECS = 10L;
+    private static final int BACKGROUND_THREADS = 4;
+
+    private static final Logger LOG = LoggerFactory.getLogger(VcdClientPool.class);
+
+    private final ApiConnectionInfo connectionInfo;
+    private final Map<PoolKey, KeyedPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private final ScheduledFuture<?> maintenance;
+
+    private volatile int maxClientsPerKey = DEFAULT_MAX_CLIENTS_PER_KEY;
+    private volatile int minIdleClientsPerKey = DEFAULT_MIN_IDLE_CLIENTS_PER_KEY;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile long validationIntervalMillis = DEFAULT_VALIDATION_INTERVAL_MILLIS;
+    private volatile boolean closed;
+
+    /**
+     * @param connectionInfo
+     *            details about the vCloud Director API the pooled clients connect to
+     */
+    public VcdClientPool(final ApiConnectionInfo connectionInfo) {
+        this.connectionInfo = connectionInfo;
+
+        executor = new ScheduledThreadPoolExecutor(BACKGROUND_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "vcd-client-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        maintenance = executor.scheduleWithFixedDelay(this::maintain,
+                MAINTENANCE_INTERVAL_SECS, MAINTENANCE_INTERVAL_SECS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxClientsPerKey
+     *            maximum number of clients, borrowed or idle, per credentials and org context;
+     *            defaults to {@value #DEFAULT_MAX_CLIENTS_PER_KEY}
+     * @return this pool
+     */
+    public VcdClientPool setMaxClientsPerKey(final int maxClientsPerKey) {
+        if (maxClientsPerKey < 1) {
+            throw new IllegalArgumentException("maxClientsPerKey");
+        }
+        this.maxClientsPerKey = maxClientsPerKey;
+        return this;
+    }
+
+    /**
+     * @param minIdleClientsPerKey
+     *            number of idle clients to keep logged in per credentials and org context; defaults
+     *            to {@value #DEFAULT_MIN_IDLE_CLIENTS_PER_KEY}
+     * @return this pool
+     */
+    public VcdClientPool setMinIdleClientsPerKey(final int minIdleClientsPerKey) {
+        if (minIdleClientsPerKey < 0) {
+            throw new IllegalArgumentException("minIdleClientsPerKey");
+        }
+        this.minIdleClientsPerKey = minIdleClientsPerKey;
+        return this;
+    }
+
+    /**
+     * @param idleTimeout
+     *            time after which idle clients beyond the minimum are logged out
+     * @return this pool
+     */
+    public VcdClientPool setIdleTimeout(final long idleTimeout, final TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        return this;
+    }
+
+    /**
+     * @param validationInterval
+     *            time after which an unused client's session is checked before it is borrowed
+     * @return this pool
+     */
+    public VcdClientPool setValidationInterval(final long validationInterval, final TimeUnit unit) {
+        this.validationIntervalMillis = unit.toMillis(validationInterval);
+        return this;
+    }
+
+    /**
+     * Starts logging in the minimum number of idle clients for the specified credentials and org
+     * context in the background, so that the first borrowers do not have to wait for a login.
+     *
+     * @param credentials
+     *            credentials the clients log in with
+     * @param orgContext
+     *            org context of the clients' requests, or {@code null}
+     */
+    public void prepare(final ClientCredentials credentials, final String orgContext) {
+        replenish(getPool(credentials, orgContext));
+    }
+
+    /**
+     * Borrows a client logged in with the specified credentials and org context, logging one in if
+     * none is idle and the pool for these credentials is not full.
+     *
+     * @param credentials
+     *            credentials the client must be logged in with
+     * @param orgContext
+     *            org context of the client's requests, or {@code null}
+     * @param timeoutInMillis
+     *            how long to wait for a client if the pool for these credentials is full
+     * @return a lease on the client, to be closed when the client is no longer needed
+     * @throws TimeoutException
+     *             if no client became available in time
+     * @throws InterruptedException
+     *             if interrupted while waiting for a client
+     */
+    public Lease borrow(final ClientCredentials credentials, final String orgContext, final long timeoutInMillis)
+            throws TimeoutException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Client pool is closed");
+        }
+        final KeyedPool pool = getPool(credentials, orgContext);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+        while (true) {
+            final IdleClient idleClient;
+            synchronized (pool) {
+                while (pool.idle.isEmpty() && pool.size >= maxClientsPerKey) {
+                    final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        throw new TimeoutException("Timed out after " + timeoutInMillis
+                                + " ms waiting for a vCloud Director client");
+                    }
+                    pool.wait(remaining);
+                }
+                idleClient = pool.idle.pollFirst();
+                if (idleClient == null) {
+                    pool.size++;
+                }
+            }
+            replenish(pool);
+
+            if (idleClient == null) {
+                try {
+                    return new Lease(pool, pool.createClient());
+                } catch (RuntimeException e) {
+                    pool.discarded();
+                    throw e;
+                }
+            }
+            if (isStale(idleClient) && !isValid(idleClient.client)) {
+                pool.discarded();
+                continue;
+            }
+            return new Lease(pool, idleClient.client);
+        }
+    }
+
+    /**
+     * Stops background work and logs out all idle clients. Clients returned afterwards are logged
+     * out as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+        final List<VcdClient> idleClients = new ArrayList<>();
+        for (final KeyedPool pool : pools.values()) {
+            synchronized (pool) {
+                pool.idle.forEach(idleClient -> idleClients.add(idleClient.client));
+                pool.size -= pool.idle.size();
+                pool.idle.clear();
+                pool.notifyAll();
+            }
+        }
+        idleClients.forEach(this::logout);
+        executor.shutdown();
+    }
+
+    private KeyedPool getPool(final ClientCredentials credentials, final String orgContext) {
+        return pools.computeIfAbsent(new PoolKey(credentials, orgContext),
+                key -> new KeyedPool(credentials, orgContext));
+    }
+
+    private boolean isStale(final IdleClient idleClient) {
+        return System.currentTimeMillis() - idleClient.validatedAt >= validationIntervalMillis;
+    }
+
+    private boolean isValid(final VcdClient client) {
+        try {
+            client.getSession();
+            return true;
+        } catch (RuntimeException e) {
+            LOG.debug("Discarding pooled vCloud Director client {} with an invalid session", client, e);
+            logout(client);
+            return false;
+        }
+    }
+
+    private void logout(final VcdClient client) {
+        try {
+            client.logout();
+        } catch (RuntimeException e) {
+            LOG.debug("Failed to log out pooled vCloud Director client {}", client, e);
+        }
+    }
+
+    /**
+     * Logs in clients in the background until the pool has the minimum number of idle clients, or
+     * is full.
+     */
+    private void replenish(final KeyedPool pool) {
+        if (closed) {
+            return;
+        }
+        final int logins;
+        synchronized (pool) {
+            logins = Math.min(minIdleClientsPerKey - pool.idle.size() - pool.pendingLogins,
+                    maxClientsPerKey - pool.size);
+            if (logins <= 0) {
+                return;
+            }
+            pool.size += logins;
+            pool.pendingLogins += logins;
+        }
+        for (int i = 0; i < logins; i++) {
+            executor.execute(() -> {
+                final VcdClient client;
+                try {
+                    client = pool.createClient();
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to log in pooled vCloud Director client", e);
+                    synchronized (pool) {
+                        pool.pendingLogins--;
+                    }
+                    pool.discarded();
+                    return;
+                }
+                synchronized (pool) {
+                    pool.pendingLogins--;
+                }
+                pool.release(client);
+            });
+        }
+    }
+
+    /**
+     * Logs out idle clients beyond the minimum that have timed out, checks the sessions of clients
+     * that have not been used for a while and replaces those that are gone.
+     */
+    private void maintain() {
+        final long now = System.currentTimeMillis();
+        for (final KeyedPool pool : pools.values()) {
+            final List<VcdClient> evicted = new ArrayList<>();
+            final List<IdleClient> toValidate = new ArrayList<>();
+            synchronized (pool) {
+                // Least recently used clients are at the end
+                final Iterator<IdleClient> it = pool.idle.descendingIterator();
+                while (it.hasNext()) {
+                    final IdleClient idleClient = it.next();
+                    if (pool.idle.size() > minIdleClientsPerKey && now - idleClient.idleSince >= idleTimeoutMillis) {
+                        it.remove();
+                        pool.size--;
+                        evicted.add(idleClient.client);
+                    } else if (isStale(idleClient)) {
+                        // Still counted in the pool's size while being validated
+                        it.remove();
+                        toValidate.add(idleClient);
+                    }
+                }
+            }
+            evicted.forEach(this::logout);
+            for (final IdleClient idleClient : toValidate) {
+                if (isValid(idleClient.client)) {
+                    idleClient.validatedAt = System.currentTimeMillis();
+                    pool.restore(idleClient);
+                } else {
+                    pool.discarded();
+                }
+            }
+            replenish(pool);
+        }
+    }
+
+    /**
+     * A client borrowed from the pool. Closing the lease returns the client to the pool.
+     */
+    public final class Lease implements AutoCloseable {
+        private final KeyedPool pool;
+        private final VcdClient client;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Lease(final KeyedPool pool, final VcdClient client) {
+            this.pool = pool;
+            this.client = client;
+        }
+
+        /**
+         * @return the borrowed client, which must not be used after the lease is closed
+         */
+        public VcdClient getClient() {
+            return client;
+        }
+
+        /**
+         * Logs out and discards the client instead of returning it to the pool, for example after
+         * it failed in a way that leaves its session unusable. Closing the lease afterwards has no
+         * effect.
+         */
+        public void invalidate() {
+            if (returned.compareAndSet(false, true)) {
+                logout(client);
+                pool.discarded();
+                replenish(pool);
+            }
+        }
+
+        /**
+         * Returns the client to the pool.
+         */
+        @Override
+        public void close() {
+            if (returned.compareAndSet(false, true)) {
+                pool.release(client);
+            }
+        }
+    }
+
+    /**
+     * Clients for one set of credentials and org context.
+     */
+    private final class KeyedPool {
+        private final ClientCredentials credentials;
+        private final String orgContext;
+
+        // Guarded by this; most recently returned first
+        private final LinkedList<IdleClient> idle = new LinkedList<>();
+        // Number of clients idle, borrowed, being validated or being logged in
+        private int size;
+        private int pendingLogins;
+
+        KeyedPool(final ClientCredentials credentials, final String orgContext) {
+            this.credentials = credentials;
+            this.orgContext = orgContext;
+        }
+
+        VcdClient createClient() {
+            final VcdClient client = VcdClientFactory.createVcdClient(connectionInfo, credentials);
+            if (orgContext != null) {
+                client.setOrgContextHeader(orgContext);
+            }
+            return client;
+        }
+
+        void release(final VcdClient client) {
+            synchronized (this) {
+                if (!closed) {
+                    idle.addFirst(new IdleClient(client));
+                    notifyAll();
+                    return;
+                }
+                size--;
+            }
+            logout(client);
+        }
+
+        /**
+         * Puts a client that was taken out for validation back in its place among the idle
+         * clients, keeping the time it has been idle since.
+         */
+        void restore(final IdleClient idleClient) {
+            synchronized (this) {
+                if (!closed) {
+                    final ListIterator<IdleClient> it = idle.listIterator();
+                    while (it.hasNext()) {
+                        if (it.next().idleSince <= idleClient.idleSince) {
+                            it.previous();
+                            break;
+                        }
+                    }
+                    it.add(idleClient);
+                    notifyAll();
+                    return;
+                }
+                size--;
+            }
+            logout(idleClient.client);
+        }
+
+        synchronized void discarded() {
+            size--;
+            notifyAll();
+        }
+    }
+
+    private static final class IdleClient {
+        private final VcdClient client;
+        private final long idleSince = System.currentTimeMillis();
+        // Guarded by the pool while the client is idle
+        private long validatedAt = idleSince;
+
+        IdleClient(final VcdClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Identifies the credentials and org context of a pool's clients. Credentials are compared by
+     * the authentication header they produce, so equal credentials share clients even if they are
+     * separate instances.
+     */
+    private static final class PoolKey {
+        private final String headerName;
+        private final String headerValue;
+        private final String orgContext;
+
+        PoolKey(final ClientCredentials credentials, final String orgContext) {
+            this.headerName = credentials.getHeaderName();
+            this.headerValue = credentials.getHeaderValue();
+            this.orgContext = orgContext;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            final PoolKey other = (PoolKey) obj;
+            return Objects.equals(headerName, other.headerName) && Objects.equals(headerValue, other.headerValue)
+                    && Objects.equals(orgContext, other.orgContext);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(headerName, headerValue, orgContext);
+        }
+    }
+}
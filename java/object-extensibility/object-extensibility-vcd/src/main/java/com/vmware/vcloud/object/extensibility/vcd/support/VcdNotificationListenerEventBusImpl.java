@@ -22,6 +22,8 @@ import com.vmware.vcloud.object.extensibility.amqp.AmqpManager;
 import com.vmware.vcloud.object.extensibility.amqp.impl.AmqpManagerImpl;
 import com.vmware.vcloud.object.extensibility.vcd.VcdNotificationListener;
 import com.vmware.vcloud.object.extensibility.vcd.event.VcdEvent;
+import com.vmware.vcloud.object.extensibility.vcd.event.task.TaskAbortEvent;
+import com.vmware.vcloud.object.extensibility.vcd.event.task.TaskCompleteEvent;
 import com.vmware.vcloud.object.extensibility.vcd.event.vc.VcCreateEvent;
 import com.vmware.vcloud.object.extensibility.vcd.event.vc.VcDeleteEvent;
 import com.vmware.vcloud.object.extensibility.vcd.event.vc.VcModifyEvent;
@@ -69,10 +71,16 @@ public class VcdNotificationListenerEventBusImpl implements VcdNotificationListe
         temp.put("com/vmware/vcloud/event/vc/modify", VcModifyEvent.class);
         temp.put("com/vmware/vcloud/event/vc/refresh", VcModifyEvent.class);
         temp.put("com/vmware/vcloud/event/vc/delete", VcDeleteEvent.class);
+        temp.put("com/vmware/vcloud/event/task/complete", TaskCompleteEvent.class);
+        temp.put("com/vmware/vcloud/event/task/abort", TaskAbortEvent.class);
 
         EVENT_MAP = Collections.unmodifiableMap(temp);
     }
 
+    // Notifications of the entities' other operations (such as task create and start) arrive on the
+    // same routing keys as the mapped ones and are of no interest
+    private static final String TASK_EVENT_TYPE_PREFIX = "com/vmware/vcloud/event/task/";
+
     private final AmqpManager amqpManager;
     private final String notificationExchange;
     private final Map<EntityType, MessageListenerContainer> notificationListeners = new HashMap<>();
@@ -121,7 +129,12 @@ public class VcdNotificationListenerEventBusImpl implements VcdNotificationListe
         LOG.trace("Received notification {} from vCloud Director", notification);
         Class<? extends VcdEvent> eventClass = EVENT_MAP.get(notification.get("type"));
         if (eventClass == null) {
-            LOG.warn("Ignoring unrecognized notification type {}", notification.get("type"));
+            final Object type = notification.get("type");
+            if (type != null && type.toString().startsWith(TASK_EVENT_TYPE_PREFIX)) {
+                LOG.trace("Ignoring notification type {}", type);
+            } else {
+                LOG.warn("Ignoring unrecognized notification type {}", type);
+            }
             return;
         }
 
@@ -70,11 +70,29 @@ abstract class AbstractVcdClientBase extends AbstractCxfRestClient {
         return clientRequestIdProvider;
     }
 
+    /**
+     * Headers that must be included with the request, for clients that prepare them in advance.
+     * <P>
+     * If prepared headers are returned, they take the place of {@link #getAcceptHeaders()},
+     * {@link #setAuthenticationHeaders(Client)} and {@link #getOrgContextHeader()}, sparing each
+     * request the work of computing them.
+     *
+     * @return the prepared headers, or {@code null} to compute headers for each request
+     */
+    RequestHeaders getRequestHeaders() {
+        return null;
+    }
+
     @Override
     protected final void configureHttpRequestHeaders(final org.apache.cxf.jaxrs.client.Client client) {
-        client.accept(getAcceptHeaders());
+        final RequestHeaders requestHeaders = getRequestHeaders();
+        if (requestHeaders != null) {
+            requestHeaders.applyTo(client);
+        } else {
+            client.accept(getAcceptHeaders());
 
-        setAuthenticationHeaders(client);
+            setAuthenticationHeaders(client);
+        }
 
         if (clientRequestIdProvider != null) {
             final String clientRequestId = clientRequestIdProvider.getClientRequestId();
@@ -83,7 +101,7 @@ abstract class AbstractVcdClientBase extends AbstractCxfRestClient {
             }
         }
 
-        if (getOrgContextHeader() != null) {
+        if (requestHeaders == null && getOrgContextHeader() != null) {
             client.header(RestConstants.VCLOUD_ORG_CONTEXT_HEADER, getOrgContextHeader());
         }
     }
@@ -0,0 +1,119 @@
+/* ***************************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * **************************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses query page sizes from observed page latency and response size.
+ * <P>
+ * Each fetched page updates moving averages of the time and bytes it cost per record. The next
+ * page size is the largest that is expected to stay within both the target latency and the byte
+ * budget, growing at most twofold per page to avoid overshooting on a noisy sample.
+ * <P>
+ * VCD addresses pages by number, so a page of size {@code s} must start at an offset that is a
+ * multiple of {@code s}. Page sizes are therefore restricted to powers of two: shrinking is always
+ * possible, while growing is deferred until the offset is suitably aligned.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdClientImpl} and
+ * is meant for its exclusive use. Instances are not thread-safe.
+ */
+class AdaptivePageSizer {
+    static final int MIN_PAGE_SIZE = 8;
+    static final int INITIAL_PAGE_SIZE = 32;
+
+    // Weight of the latest sample in the moving averages
+    private static final double SMOOTHING = 0.5;
+
+    private final long targetLatencyNanos;
+    private final long byteBudget;
+    private final int maxPageSize;
+
+    private double nanosPerRecord = Double.NaN;
+    private double bytesPerRecord = Double.NaN;
+    private int targetPageSize;
+
+    /**
+     * @param targetLatencyMillis
+     *            desired time to fetch and unmarshal a page
+     * @param byteBudget
+     *            maximum desired response size, or {@code 0} for no limit
+     * @param maxPageSize
+     *            largest page size VCD accepts
+     * @param initialPageSize
+     *            page size to start with, such as one learned from an earlier query of the same
+     *            type
+     */
+    AdaptivePageSizer(final long targetLatencyMillis, final long byteBudget, final int maxPageSize,
+            final int initialPageSize) {
+        if (targetLatencyMillis <= 0) {
+            throw new IllegalArgumentException("targetLatencyMillis");
+        }
+        if (byteBudget < 0) {
+            throw new IllegalArgumentException("byteBudget");
+        }
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.byteBudget = byteBudget;
+        this.maxPageSize = Integer.highestOneBit(Math.max(MIN_PAGE_SIZE, maxPageSize));
+        this.targetPageSize = clamp(initialPageSize);
+    }
+
+    /**
+     * @return the currently preferred page size, ignoring alignment
+     */
+    int getTargetPageSize() {
+        return targetPageSize;
+    }
+
+    /**
+     * Records the cost of a fetched page.
+     *
+     * @param records
+     *            number of records on the page
+     * @param elapsedNanos
+     *            time taken to fetch and unmarshal the page
+     * @param bytes
+     *            size of the response body or a negative number if unknown
+     */
+    void recordPage(final int records, final long elapsedNanos, final long bytes) {
+        if (records <= 0) {
+            return;
+        }
+        nanosPerRecord = smooth(nanosPerRecord, (double) elapsedNanos / records);
+        if (bytes >= 0) {
+            bytesPerRecord = smooth(bytesPerRecord, (double) bytes / records);
+        }
+
+        double ideal = targetLatencyNanos / nanosPerRecord;
+        if (byteBudget > 0 && !Double.isNaN(bytesPerRecord) && bytesPerRecord > 0) {
+            ideal = Math.min(ideal, byteBudget / bytesPerRecord);
+        }
+        final int limited = (int) Math.min(ideal, 2.0 * targetPageSize);
+        targetPageSize = clamp(limited);
+    }
+
+    /**
+     * Returns the size for the page starting at the specified record offset: the largest power of
+     * two no greater than the target size which evenly divides the offset.
+     */
+    int nextPageSize(final long offset) {
+        int pageSize = targetPageSize;
+        while (pageSize > 1 && offset % pageSize != 0) {
+            pageSize >>= 1;
+        }
+        return pageSize;
+    }
+
+    private static double smooth(final double average, final double sample) {
+        return Double.isNaN(average) ? sample : SMOOTHING * sample + (1 - SMOOTHING) * average;
+    }
+
+    private int clamp(final int pageSize) {
+        final int bounded = Math.max(MIN_PAGE_SIZE, Math.min(maxPageSize, pageSize));
+        return Integer.highestOneBit(bounded);
+    }
+}
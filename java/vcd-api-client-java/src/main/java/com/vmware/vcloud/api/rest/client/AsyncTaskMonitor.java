@@ -0,0 +1,53 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+
+/**
+ * Non-blocking variant of {@link TaskMonitor}: waits for tasks without tying up a thread per task.
+ * <P>
+ * Each wait returns a {@link CompletableFuture} that completes with the task once it reaches an
+ * expected status, or completes exceptionally with a {@link VcdTaskException} if the task fails, or
+ * a {@link TimeoutException} if it does not reach an expected status in time. Cancelling the
+ * future stops polling the task.
+ *
+ * @since 9.1
+ */
+public interface AsyncTaskMonitor {
+
+    /**
+     * Waits for task to complete successfully.
+     *
+     * @param task
+     *            task returned by post or put calls.
+     * @param timeoutInMillis
+     *            time (in milliseconds) to wait for task to finish
+     * @return a future for the completed successful task
+     */
+    CompletableFuture<TaskType> waitForSuccess(TaskType task, long timeoutInMillis);
+
+    /**
+     * Waits for task to reach expected status.
+     *
+     * @param task
+     *            task returned by post or put calls.
+     * @param timeoutInMillis
+     *            time (in milliseconds) to wait for task to finish.
+     * @param failOnStatus
+     *            the future completes exceptionally with a {@link VcdTaskException} if this
+     *            {@link TaskStatus} is reached. May be {@code null}.
+     * @param expectedTargetStatus
+     *            list of expected alternative target status.
+     * @return a future for the task in one of the expected target statuses
+     */
+    CompletableFuture<TaskType> waitForStatus(TaskType task, long timeoutInMillis, TaskStatus failOnStatus,
+            TaskStatus... expectedTargetStatus);
+}
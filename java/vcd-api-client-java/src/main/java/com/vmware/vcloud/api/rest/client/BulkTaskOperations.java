@@ -0,0 +1,213 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.vmware.vcloud.api.rest.client.VcdTaskMonitor.MultiTaskTracker;
+import com.vmware.vcloud.api.rest.client.constants.RelationType;
+import com.vmware.vcloud.api.rest.client.constants.RestConstants;
+import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+
+/**
+ * Applies operations to many tasks at once, issuing the requests concurrently.
+ * <P>
+ * For example, to cancel every task of a bulk deployment that went wrong and wait for the tasks
+ * to end:
+ *
+ * <pre>
+ *     final BulkTaskOperations bulkTaskOperations = new BulkTaskOperations(vcdClient);
+ *     final BulkTaskOperations.Cancellation cancellation = bulkTaskOperations.cancel(tracker);
+ *     final Map&lt;String, TaskStatus&gt; finalStatus = cancellation.getTrackingFuture().get();
+ * </pre>
+ *
+ * At most {@link #setMaxConcurrentRequests(int) maxConcurrentRequests} requests are in flight at
+ * any time; each operation runs on threads of its own, which end when it returns.
+ *
+ * @since 9.1
+ */
+public class BulkTaskOperations {
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    private final VcdClient vcdClient;
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+    /**
+     * @param vcdClient
+     *            client used to issue task requests and track their tasks
+     */
+    public BulkTaskOperations(final VcdClient vcdClient) {
+        this.vcdClient = vcdClient;
+    }
+
+    /**
+     * Sets the maximum number of requests issued concurrently by an operation.
+     *
+     * @param maxConcurrentRequests
+     *            positive number of requests; defaults to {@value #DEFAULT_MAX_CONCURRENT_REQUESTS}
+     * @return this instance
+     */
+    public BulkTaskOperations setMaxConcurrentRequests(final int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * Requests cancellation of the specified tasks and tracks them until they end.
+     * <P>
+     * Each task is cancelled through its {@link RelationType#TASK_CANCEL} link. Tasks without one
+     * (because they have already ended or cannot be cancelled) are skipped, but still tracked. The
+     * tasks are expected to have been returned by VCD recently enough for their links to be
+     * current.
+     *
+     * @param tasks
+     *            tasks to cancel
+     * @return outcome of the cancellation requests and a {@link Future} of the tasks' final
+     *         statuses
+     */
+    public Cancellation cancel(final Collection<TaskType> tasks) {
+        final Cancellation cancellation = new Cancellation();
+        forEach(tasks, task -> cancel(task, cancellation));
+
+        final MultiTaskTracker tracker = vcdClient.getTaskMonitor().getMultiTaskTracker();
+        tracker.track(tasks);
+        cancellation.trackingFuture = tracker.toTrackingFuture();
+        return cancellation;
+    }
+
+    /**
+     * Requests cancellation of the pending tasks of the specified tracker.
+     * <P>
+     * The tracker is first told that all of its tasks have been added, so no more can be added to
+     * it. Its pending tasks are then fetched and cancelled as described in
+     * {@link #cancel(Collection)}, and the returned {@link Cancellation}'s tracking future is the
+     * tracker's own.
+     *
+     * @param tracker
+     *            tracker whose tasks to cancel
+     * @return outcome of the cancellation requests and a {@link Future} of the tasks' final
+     *         statuses
+     */
+    public Cancellation cancel(final MultiTaskTracker tracker) {
+        final Cancellation cancellation = new Cancellation();
+        cancellation.trackingFuture = tracker.toTrackingFuture();
+        forEach(tracker.getPendingTaskIds(), taskId -> {
+            final TaskType task;
+            try {
+                task = vcdClient.getEntity(taskId, RestConstants.MediaType.TASK, TaskType.class);
+            } catch (RuntimeException e) {
+                cancellation.failures.put(taskId, e);
+                return;
+            }
+            cancel(task, cancellation);
+        });
+        return cancellation;
+    }
+
+    private void cancel(final TaskType task, final Cancellation cancellation) {
+        try {
+            final LinkType link = VcdUtils.findLink(task, RelationType.TASK_CANCEL, null, false);
+            if (link == null) {
+                cancellation.skipped.add(task.getId());
+                return;
+            }
+            vcdClient.postResourceVoid(URI.create(link.getHref()), null, null);
+            cancellation.requested.add(task.getId());
+        } catch (RuntimeException e) {
+            cancellation.failures.put(task.getId(), e);
+        }
+    }
+
+    /**
+     * Applies a request to each of the specified items with at most
+     * {@link #setMaxConcurrentRequests(int) maxConcurrentRequests} in flight, returning when all
+     * have been applied.
+     */
+    private <T> void forEach(final Collection<T> items, final Consumer<T> request) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentRequests, items.size()),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "vcd-bulk-task-operation");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            final List<CompletableFuture<Void>> requests = new ArrayList<>(items.size());
+            for (final T item : items) {
+                requests.add(CompletableFuture.runAsync(() -> request.accept(item), executor));
+            }
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Outcome of a bulk cancellation.
+     */
+    public static final class Cancellation {
+        private final Set<String> requested = ConcurrentHashMap.newKeySet();
+        private final Set<String> skipped = ConcurrentHashMap.newKeySet();
+        private final Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+        private Future<Map<String, TaskStatus>> trackingFuture;
+
+        private Cancellation() {}
+
+        /**
+         * @return ids of the tasks whose cancellation was accepted by VCD
+         */
+        public Set<String> getRequested() {
+            return Collections.unmodifiableSet(requested);
+        }
+
+        /**
+         * @return ids of the tasks that had no cancel link
+         */
+        public Set<String> getSkipped() {
+            return Collections.unmodifiableSet(skipped);
+        }
+
+        /**
+         * @return failures to fetch or cancel tasks, keyed by task id
+         */
+        public Map<String, RuntimeException> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return a {@link Future} of the final status of every task, as returned by
+         *         {@link MultiTaskTracker#toTrackingFuture()}
+         */
+        public Future<Map<String, TaskStatus>> getTrackingFuture() {
+            return trackingFuture;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requested=%d, skipped=%d, failed=%d", requested.size(), skipped.size(),
+                    failures.size());
+        }
+    }
+}
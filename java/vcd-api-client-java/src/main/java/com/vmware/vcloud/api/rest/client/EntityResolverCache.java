@@ -0,0 +1,69 @@
+/* ***************************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * **************************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vmware.vcloud.api.rest.schema_v1_5.EntityType;
+
+/**
+ * A bounded, thread-safe cache of entity resolver results keyed by entity {@code URN}.
+ * <P>
+ * Each entry holds the {@link EntityType} returned by VCD's entity resolver, which carries the
+ * entity's href, type and the {@code alternate} links used to fetch its specialized
+ * representation. Once the cache reaches its capacity the least recently used entry is evicted.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdClientImpl} and
+ * is meant for its exclusive use.
+ */
+class EntityResolverCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<String, EntityType> entries;
+
+    EntityResolverCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        this.entries = new LinkedHashMap<String, EntityType>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EntityType> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached resolution for the specified entity id or {@code null} if none is known.
+     */
+    EntityType get(final String entityId) {
+        synchronized (entries) {
+            return entries.get(entityId);
+        }
+    }
+
+    void put(final String entityId, final EntityType resolvedEntity) {
+        synchronized (entries) {
+            entries.put(entityId, resolvedEntity);
+        }
+    }
+
+    void invalidate(final String entityId) {
+        synchronized (entries) {
+            entries.remove(entityId);
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
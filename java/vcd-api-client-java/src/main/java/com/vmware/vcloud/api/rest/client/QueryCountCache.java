@@ -0,0 +1,82 @@
+/* ***************************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * **************************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A short-lived, thread-safe cache of query result counts keyed by the count request's URI.
+ * <P>
+ * Counts are typically requested repeatedly in quick succession by dashboards and pre-flight
+ * checks, where a result a few seconds old is as good as a fresh one. Entries expire after a
+ * fixed time to live.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdClientImpl} and
+ * is meant for its exclusive use.
+ */
+class QueryCountCache {
+    static final long DEFAULT_TTL_MILLIS = 5000L;
+
+    // Expired entries are purged once the cache grows beyond this size
+    private static final int PURGE_THRESHOLD = 256;
+
+    private final long ttlMillis;
+    private final Map<String, CachedCount> entries = new ConcurrentHashMap<>();
+
+    QueryCountCache(final long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the cached count for the specified request or {@code null} if there is no unexpired
+     *         count
+     */
+    Long get(final String countRequest) {
+        final CachedCount cachedCount = entries.get(countRequest);
+        if (cachedCount == null) {
+            return null;
+        }
+        if (cachedCount.isExpired(System.currentTimeMillis())) {
+            entries.remove(countRequest, cachedCount);
+            return null;
+        }
+        return cachedCount.count;
+    }
+
+    void put(final String countRequest, final long count) {
+        if (ttlMillis == 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (entries.size() >= PURGE_THRESHOLD) {
+            entries.values().removeIf(c -> c.isExpired(now));
+        }
+        entries.put(countRequest, new CachedCount(count, now + ttlMillis));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private static final class CachedCount {
+        private final long count;
+        private final long expiresAtMillis;
+
+        CachedCount(final long count, final long expiresAtMillis) {
+            this.count = count;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean isExpired(final long now) {
+            return now >= expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cxf.jaxrs.client.Client;
+
+/**
+ * An immutable set of headers to send with requests, prepared once and then applied to any number
+ * of requests without further computation.
+ * <P>
+ * This class's implementation is closely tied to the implementation of
+ * {@link AbstractVcdClientBase} and is meant for its exclusive use.
+ *
+ * @since 9.1
+ */
+final class RequestHeaders {
+    private final String[] accept;
+    private final String[] names;
+    private final Object[][] values;
+
+    private RequestHeaders(final String[] accept, final Map<String, List<Object>> headers) {
+        this.accept = accept;
+        names = new String[headers.size()];
+        values = new Object[headers.size()][];
+        int i = 0;
+        for (final Map.Entry<String, List<Object>> header : headers.entrySet()) {
+            names[i] = header.getKey();
+            values[i] = header.getValue().toArray();
+            i++;
+        }
+    }
+
+    /**
+     * Adds the headers to a request.
+     */
+    void applyTo(final Client client) {
+        if (accept != null) {
+            client.accept(accept);
+        }
+        for (int i = 0; i < names.length; i++) {
+            client.header(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        if (accept != null) {
+            sb.append("Accept=").append(Arrays.toString(accept));
+        }
+        for (int i = 0; i < names.length; i++) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(names[i]).append('=').append(Arrays.toString(values[i]));
+        }
+        return sb.toString();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for {@link RequestHeaders}.
+     */
+    static final class Builder {
+        private String[] accept;
+        private final Map<String, List<Object>> headers = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        Builder accept(final String... accept) {
+            this.accept = accept.clone();
+            return this;
+        }
+
+        /**
+         * Adds a header value, which may be any object {@link Client#header(String, Object...)}
+         * accepts.
+         */
+        Builder header(final String name, final Object value) {
+            headers.computeIfAbsent(name, n -> new ArrayList<>(1)).add(value);
+            return this;
+        }
+
+        /**
+         * Adds all headers of the specified set, keeping this builder's accept values if set.
+         */
+        Builder headers(final RequestHeaders requestHeaders) {
+            if (accept == null && requestHeaders.accept != null) {
+                accept = requestHeaders.accept;
+            }
+            for (int i = 0; i < requestHeaders.names.length; i++) {
+                for (final Object value : requestHeaders.values[i]) {
+                    header(requestHeaders.names[i], value);
+                }
+            }
+            return this;
+        }
+
+        RequestHeaders build() {
+            return new RequestHeaders(accept, headers);
+        }
+    }
+}
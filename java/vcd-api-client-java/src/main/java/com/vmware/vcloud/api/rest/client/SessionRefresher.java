@@ -0,0 +1,184 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Refreshes a {@link VcdClient}'s session in the background before it expires, so that requests
+ * never fail with an expired session and pay for a re-authentication round-trip.
+ * <P>
+ * If the client holds a JWT, the session is refreshed {@link #setRefreshMargin(long, TimeUnit)
+ * refreshMargin} before the token's {@code exp} claim. Otherwise the session is refreshed every
+ * {@link #setSessionIdleTimeout(long, TimeUnit) sessionIdleTimeout} less the margin, which keeps it
+ * from expiring even if the client sits idle. Each refresh uses {@link VcdClient#refreshSession()},
+ * which switches the client to the new session atomically. A failed refresh is retried
+ * {@value #RETRY_DELAY_SECS} seconds later until it succeeds or the session expires.
+ *
+ * <pre>
+ *     final SessionRefresher refresher = new SessionRefresher(vcdClient).start();
+ *     ...
+ *     refresher.close();
+ * </pre>
+ *
+ * All refreshers share a single daemon thread.
+ *
+ * @since 9.1
+ */
+public class SessionRefresher implements AutoCloseable {
+    private static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    // vCloud Director's default session idle timeout
+    private static final long DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long RETRY_DELAY_SECS = 30L;
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final VcdClient vcdClient;
+    private volatile long refreshMarginMillis = DEFAULT_REFRESH_MARGIN_MILLIS;
+    private volatile long sessionIdleTimeoutMillis = DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS;
+
+    // Guarded by this
+    private ScheduledFuture<?> nextRefresh;
+    private boolean closed;
+    private volatile RuntimeException lastFailure;
+
+    /**
+     * @param vcdClient
+     *            client logged in with client credentials, whose session to refresh
+     */
+    public SessionRefresher(final VcdClient vcdClient) {
+        this.vcdClient = vcdClient;
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "vcd-session-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setKeepAliveTime(1, TimeUnit.MINUTES);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * @param refreshMargin
+     *            how long before the session expires to refresh it; defaults to 2 minutes
+     * @return this instance
+     */
+    public SessionRefresher setRefreshMargin(final long refreshMargin, final TimeUnit unit) {
+        this.refreshMarginMillis = unit.toMillis(refreshMargin);
+        return this;
+    }
+
+    /**
+     * @param sessionIdleTimeout
+     *            idle timeout of sessions without a JWT, as configured in vCloud Director; defaults
+     *            to 30 minutes
+     * @return this instance
+     */
+    public SessionRefresher setSessionIdleTimeout(final long sessionIdleTimeout, final TimeUnit unit) {
+        this.sessionIdleTimeoutMillis = unit.toMillis(sessionIdleTimeout);
+        return this;
+    }
+
+    /**
+     * Schedules the first refresh based on the client's current session.
+     *
+     * @return this instance
+     */
+    public synchronized SessionRefresher start() {
+        if (closed) {
+            throw new IllegalStateException("Session refresher is closed");
+        }
+        if (nextRefresh == null) {
+            scheduleRefresh(getRefreshDelay());
+        }
+        return this;
+    }
+
+    /**
+     * @return the failure of the most recent refresh, or {@code null} if it succeeded
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stops refreshing the session.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+    }
+
+    private void refresh() {
+        long delay;
+        try {
+            vcdClient.refreshSession();
+            lastFailure = null;
+            delay = getRefreshDelay();
+        } catch (RuntimeException e) {
+            lastFailure = e;
+            delay = TimeUnit.SECONDS.toMillis(RETRY_DELAY_SECS);
+        }
+        synchronized (this) {
+            if (!closed) {
+                scheduleRefresh(delay);
+            }
+        }
+    }
+
+    private void scheduleRefresh(final long delayMillis) {
+        nextRefresh = SCHEDULER.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return milliseconds until the client's current session should be refreshed
+     */
+    private long getRefreshDelay() {
+        final long expiry = getJwtExpiry(vcdClient.getJwtToken());
+        final long lifetime = (expiry > 0) ? expiry - System.currentTimeMillis() : sessionIdleTimeoutMillis;
+        return Math.max(0, lifetime - refreshMarginMillis);
+    }
+
+    /**
+     * @return expiry time of the JWT in milliseconds since the epoch, or {@code -1} if there is no
+     *         JWT or it carries no expiry
+     */
+    static long getJwtExpiry(final String jwt) {
+        if (jwt == null) {
+            return -1;
+        }
+        final String[] parts = jwt.split("\\.");
+        if (parts.length < 2) {
+            return -1;
+        }
+        try {
+            final JsonNode exp = OBJECT_MAPPER.readTree(
+                    new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8)).get("exp");
+            return (exp != null && exp.canConvertToLong()) ? TimeUnit.SECONDS.toMillis(exp.asLong()) : -1;
+        } catch (IOException | IllegalArgumentException e) {
+            // Not a JWT we can read; fall back on the session idle timeout
+            return -1;
+        }
+    }
+}
@@ -9,6 +9,7 @@ package com.vmware.vcloud.api.rest.client;
 import java.util.concurrent.TimeoutException;
 
 import com.vmware.cxfrestclient.JaxRsClient;
+import com.vmware.vcloud.api.rest.client.metrics.TaskMetricsRecorder;
 import com.vmware.vcloud.api.rest.schema_v1_5.EntityType;
 import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 
@@ -61,7 +62,8 @@ public interface TaskMonitor {
      * @param timeoutInMillis
      *            time (in milliseconds) to wait for task to finish.
      * @param pollFrequency
-     *            time (in milliseconds) with which task will be polled.
+     *            longest time (in milliseconds) between polls of the task; implementations may
+     *            poll more often, particularly soon after the task started.
      * @param failOnStatus
      *            task will fail if this {@link TaskStatus} is reached. If this parameter is null then
      *            either task will achieve expected target status or throw {@link TimeOutException}.
@@ -82,7 +84,8 @@ public interface TaskMonitor {
      * @param timeoutInMillis
      *            time (in milliseconds) to wait for task to finish.
      * @param pollFrequency
-     *            time (in milliseconds) with which task will be polled.
+     *            longest time (in milliseconds) between polls of the task; implementations may
+     *            poll more often, particularly soon after the task started.
      * @param failOnStatus
      *            task will fail if this {@link TaskStatus} is reached. If this parameter is null
      *            then either task will achieve expected target status or throw
@@ -114,4 +117,14 @@ public interface TaskMonitor {
      *             exception will be thrown if there's not exactly one task for the entity
      */
     TaskType waitForSuccess(final EntityType entity, final long timeoutInMillis) throws TimeoutException;
+
+    /**
+     * Sets the recorder to which the duration, queue time and outcome of tasks observed by this
+     * monitor until they end are reported.
+     *
+     * @param taskMetricsRecorder
+     *            recorder for task metrics, or {@code null} to stop recording
+     * @since 9.1
+     */
+    void setTaskMetricsRecorder(TaskMetricsRecorder taskMetricsRecorder);
 }
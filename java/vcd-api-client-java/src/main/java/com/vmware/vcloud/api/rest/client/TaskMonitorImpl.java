@@ -12,21 +12,59 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.vmware.cxfrestclient.JaxRsClient;
+import com.vmware.vcloud.api.rest.client.metrics.TaskMetricsRecorder;
 import com.vmware.vcloud.api.rest.schema_v1_5.EntityType;
 import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 import com.vmware.vcloud.api.rest.schema_v1_5.TasksInProgressType;
 
 import org.apache.commons.lang3.time.StopWatch;
 
+/**
+ * Waits for tasks by polling them.
+ * <P>
+ * Polls start a fraction of a second apart and back off up to the poll frequency requested, which
+ * is therefore the longest time between polls rather than a fixed interval. Unless disabled with
+ * {@link #setOperationDurationLearning(boolean)}, the durations of completed tasks are learned per
+ * operation name, and a wait for a task of a known operation skips polling until the task is
+ * expected to be nearly done.
+ * <P>
+ * The duration, observed queue time and outcome of every task waited for until it ends are
+ * reported to the {@link TaskMetricsRecorder} set with
+ * {@link #setTaskMetricsRecorder(TaskMetricsRecorder)}.
+ */
 public class TaskMonitorImpl implements TaskMonitor {
 
     private final JaxRsClient client;
-    private static final long DEFAULT_POLL_MS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+    private static final long DEFAULT_POLL_MS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+    private final TaskPollingSchedule pollingSchedule = new TaskPollingSchedule();
+
+    private volatile TaskMetricsRecorder taskMetricsRecorder = TaskMetricsRecorder.NOOP;
 
     public TaskMonitorImpl(final JaxRsClient client) {
         this.client = client;
     }
 
+    /**
+     * Enables or disables learning typical task durations per operation name to schedule polls.
+     * Enabled by default; disabling it forgets durations learned so far.
+     */
+    public void setOperationDurationLearning(final boolean enabled) {
+        pollingSchedule.setLearningEnabled(enabled);
+    }
+
+    @Override
+    public void setTaskMetricsRecorder(final TaskMetricsRecorder taskMetricsRecorder) {
+        this.taskMetricsRecorder = (taskMetricsRecorder == null) ? TaskMetricsRecorder.NOOP : taskMetricsRecorder;
+    }
+
+    /**
+     * @return the recorder to report completed tasks to; never {@code null}
+     */
+    protected TaskMetricsRecorder getTaskMetricsRecorder() {
+        return taskMetricsRecorder;
+    }
+
     @Override
     public TaskType waitForSuccess(final TaskType task, final long timeoutInMillis) throws TimeoutException {
         return waitForStatus(task, timeoutInMillis, DEFAULT_POLL_MS, TaskStatus.ERROR, TaskStatus.SUCCESS);
@@ -59,16 +97,29 @@ public class TaskMonitorImpl implements TaskMonitor {
             TaskStatus failOnStatus, TaskStatus... expectedTargetStatus) throws TimeoutException {
         final StopWatch stopWatch = new StopWatch();
         stopWatch.start();
+        final TaskPollingSchedule.Poller poller = pollingSchedule.newPoller(pollFrequency);
+        long queuedSince = -1;
+        long queueTime = -1;
         while (true) {
 
+            final long polledAt = stopWatch.getTime();
             final TaskType taskType = getTaskStatus(taskHref);
+            if (isQueued(taskType)) {
+                if (queuedSince < 0) {
+                    queuedSince = polledAt;
+                }
+            } else if (queuedSince >= 0 && queueTime < 0) {
+                queueTime = polledAt - queuedSince;
+            }
 
             for (final TaskStatus status : expectedTargetStatus) {
                 if (taskType.getStatus().equalsIgnoreCase(status.toString())) {
+                    recordCompletion(taskType, queueTime);
                     return taskType;
                 } else if (failOnStatus != null
                         && taskType.getStatus().equalsIgnoreCase(failOnStatus.toString())) {
 
+                    recordCompletion(taskType, queueTime);
                     throw new VcdTaskException(taskType.getOwner(), String.format(
                             "Expected task status %s but got %s",
                             createTaskStatusString(expectedTargetStatus), taskType.getStatus()),
@@ -76,13 +127,16 @@ public class TaskMonitorImpl implements TaskMonitor {
                 }
             }
 
-            if (stopWatch.getTime() >= timeoutInMillis) {
+            final long elapsed = stopWatch.getTime();
+            if (elapsed >= timeoutInMillis) {
                 stopWatch.stop();
                 break;
             }
 
+            final long runningTime = getRunningTime(taskType, elapsed);
             try {
-                Thread.sleep(pollFrequency);
+                Thread.sleep(Math.min(poller.nextInterval(taskType.getOperationName(), runningTime),
+                        timeoutInMillis - elapsed));
             } catch (final InterruptedException e) {
                 throw new RuntimeException("Polling was interrupted", e);
             }
@@ -94,6 +148,40 @@ public class TaskMonitorImpl implements TaskMonitor {
                 + " seconds waiting for task: " + taskHref);
     }
 
+    /**
+     * @return time since the task started, or the specified time waited if the task's start time
+     *         is not known
+     */
+    private static long getRunningTime(final TaskType taskType, final long waitedMillis) {
+        if (taskType.getStartTime() == null) {
+            return waitedMillis;
+        }
+        final long runningTime = System.currentTimeMillis()
+                - taskType.getStartTime().toGregorianCalendar().getTimeInMillis();
+        // The task cannot have started after the wait began; don't trust a clock behind VCD's
+        return Math.max(runningTime, waitedMillis);
+    }
+
+    private static boolean isQueued(final TaskType taskType) {
+        return TaskStatus.PENDING.getLabel().equalsIgnoreCase(taskType.getStatus())
+                || TaskStatus.PRE_RUNNING.getLabel().equalsIgnoreCase(taskType.getStatus());
+    }
+
+    private void recordCompletion(final TaskType taskType, final long queueTime) {
+        if (taskType.getStartTime() == null || taskType.getEndTime() == null) {
+            return;
+        }
+        final long duration = taskType.getEndTime().toGregorianCalendar().getTimeInMillis()
+                - taskType.getStartTime().toGregorianCalendar().getTimeInMillis();
+        pollingSchedule.recordDuration(taskType.getOperationName(), duration);
+        try {
+            taskMetricsRecorder.taskCompleted(taskType.getOperationName(),
+                    TaskStatus.from(taskType.getStatus().toLowerCase()), duration, queueTime);
+        } catch (IllegalArgumentException e) {
+            // Not a status known to this client; nothing to record
+        }
+    }
+
     private String createTaskStatusString(TaskStatus... taskStatus) {
         final StringBuffer sb = new StringBuffer();
 
@@ -0,0 +1,116 @@
+/* ***************************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * **************************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides how long to wait between successive polls of a task.
+ * <P>
+ * Polls start {@value #INITIAL_INTERVAL_MILLIS} ms apart and back off following the Fibonacci
+ * sequence up to a maximum interval, so that short tasks are noticed soon after they complete
+ * while long running tasks are polled progressively less often.
+ * <P>
+ * When learning is enabled, the durations of completed tasks are averaged per operation name. A
+ * wait for a task whose operation has a known typical duration skips the early polls, sleeping
+ * (within the maximum interval) until that duration has elapsed since the task started before
+ * backing off from the initial interval again.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link TaskMonitorImpl} and
+ * is meant for its exclusive use. Instances are thread-safe; {@link Poller}s are not.
+ */
+class TaskPollingSchedule {
+    static final long INITIAL_INTERVAL_MILLIS = 250L;
+
+    // Weight of the latest duration in the moving average
+    private static final double SMOOTHING = 0.3;
+
+    private final Map<String, Double> expectedDurations = new ConcurrentHashMap<>();
+    private volatile boolean learningEnabled = true;
+
+    void setLearningEnabled(final boolean learningEnabled) {
+        this.learningEnabled = learningEnabled;
+        if (!learningEnabled) {
+            expectedDurations.clear();
+        }
+    }
+
+    /**
+     * Records the duration of a completed task.
+     *
+     * @param operationName
+     *            {@link com.vmware.vcloud.api.rest.schema_v1_5.TaskType#getOperationName() operation
+     *            name} of the task
+     * @param durationMillis
+     *            time between the task's start and end
+     */
+    void recordDuration(final String operationName, final long durationMillis) {
+        if (!learningEnabled || operationName == null || durationMillis < 0) {
+            return;
+        }
+        expectedDurations.merge(operationName, (double) durationMillis,
+                (average, sample) -> SMOOTHING * sample + (1 - SMOOTHING) * average);
+    }
+
+    /**
+     * @return the typical duration of tasks of the specified operation or {@code -1} if unknown
+     */
+    long getExpectedDuration(final String operationName) {
+        if (operationName == null) {
+            return -1;
+        }
+        final Double expected = expectedDurations.get(operationName);
+        return expected == null ? -1 : expected.longValue();
+    }
+
+    /**
+     * @param maxIntervalMillis
+     *            longest time to wait between polls
+     * @return a poller for a single wait
+     */
+    Poller newPoller(final long maxIntervalMillis) {
+        if (maxIntervalMillis <= 0) {
+            throw new IllegalArgumentException("maxIntervalMillis");
+        }
+        return new Poller(maxIntervalMillis);
+    }
+
+    /**
+     * Computes the intervals between the polls of a single wait.
+     */
+    final class Poller {
+        private final long maxIntervalMillis;
+        private long previousInterval = 0;
+        private long currentInterval = INITIAL_INTERVAL_MILLIS;
+
+        private Poller(final long maxIntervalMillis) {
+            this.maxIntervalMillis = maxIntervalMillis;
+        }
+
+        /**
+         * @param operationName
+         *            operation name of the task, if known
+         * @param elapsedMillis
+         *            time since the task started, or since the wait began if that is not known
+         * @return time to wait before the next poll
+         */
+        long nextInterval(final String operationName, final long elapsedMillis) {
+            final long remaining = getExpectedDuration(operationName) - elapsedMillis;
+            if (remaining > currentInterval) {
+                return Math.min(maxIntervalMillis, remaining);
+            }
+            final long interval = Math.min(maxIntervalMillis, currentInterval);
+            if (currentInterval < maxIntervalMillis) {
+                final long nextInterval = previousInterval + currentInterval;
+                previousInterval = currentInterval;
+                currentInterval = nextInterval;
+            }
+            return interval;
+        }
+    }
+}
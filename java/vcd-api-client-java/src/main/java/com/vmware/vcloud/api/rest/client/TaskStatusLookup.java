@@ -0,0 +1,193 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultAdminTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Looks up the status of many tasks at once, for {@link AsyncTaskMonitor} implementations that
+ * need to check on pending tasks without fetching each of them.
+ * <P>
+ * Statuses are looked up with {@code task} queries (or {@code adminTask} queries when logged in to
+ * the System org) filtered by the ids of up to {@value #MAX_TASKS_PER_QUERY} tasks each. A
+ * {@link TargetStatus} then tells whether a status so found ends a wait, and resolves the wait
+ * once the task has been fetched in full.
+ *
+ * @since 9.1
+ */
+public class TaskStatusLookup {
+    /**
+     * Maximum number of task ids in the filter of a single query.
+     */
+    public static final int MAX_TASKS_PER_QUERY = 25;
+
+    private static final Set<TaskStatus> FINAL_STATUSES =
+            Collections.unmodifiableSet(EnumSet.of(TaskStatus.SUCCESS, TaskStatus.ERROR, TaskStatus.ABORTED,
+                    TaskStatus.CANCELED));
+
+    private final VcdClient vcdClient;
+    private volatile Boolean systemOrg;
+
+    /**
+     * @param vcdClient
+     *            client used to query tasks; whether it is logged in to the System org is
+     *            determined on first use
+     */
+    public TaskStatusLookup(final VcdClient vcdClient) {
+        this.vcdClient = vcdClient;
+    }
+
+    /**
+     * Queries the status of the specified tasks.
+     *
+     * @param taskIds
+     *            ids of the tasks to look up
+     * @return status of each task returned by the queries, keyed by task id; tasks the queries do
+     *         not return are absent
+     */
+    public Map<String, String> queryStatuses(final Collection<String> taskIds) {
+        final List<String> ids = new ArrayList<>(taskIds);
+        final Map<String, String> statuses = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += MAX_TASKS_PER_QUERY) {
+            final List<String> batch = ids.subList(i, Math.min(ids.size(), i + MAX_TASKS_PER_QUERY));
+            final String filter = Query.getFilterBuilder().is("id")
+                    .equalTo(batch.get(0), batch.subList(1, batch.size()).toArray(new String[0])).query();
+
+            createTaskQuery()
+                    .setQueryResultFormat(QueryResultFormat.ID_RECORDS)
+                    .setPageSize(MAX_TASKS_PER_QUERY)
+                    .setFilter(filter)
+                    .stream()
+                    .forEach(task -> statuses.putIfAbsent(task.getId(), extractStatus(task)));
+        }
+        return statuses;
+    }
+
+    private Query<? extends QueryResultRecordType> createTaskQuery() {
+        Boolean system = systemOrg;
+        if (system == null) {
+            system = StringUtils.equalsIgnoreCase(vcdClient.getSession().getOrg(), "system");
+            systemOrg = system;
+        }
+        return createTaskQuery(vcdClient, system);
+    }
+
+    /**
+     * @param systemOrg
+     *            whether the client is logged in to the System org
+     * @return an {@code adminTask} query if {@code systemOrg} is {@code true}, a {@code task} query
+     *         otherwise
+     */
+    public static Query<? extends QueryResultRecordType> createTaskQuery(final VcdClient vcdClient,
+            final boolean systemOrg) {
+        return systemOrg
+                ? vcdClient.getQuery("adminTask", QueryResultAdminTaskRecordType.class)
+                : vcdClient.getQuery("task", QueryResultTaskRecordType.class);
+    }
+
+    /**
+     * @return the status of a record returned by a {@code task} or {@code adminTask} query
+     */
+    public static String extractStatus(final QueryResultRecordType task) {
+        if (task instanceof QueryResultAdminTaskRecordType) {
+            return ((QueryResultAdminTaskRecordType)task).getStatus();
+        } else if (task instanceof QueryResultTaskRecordType) {
+            return ((QueryResultTaskRecordType)task).getStatus();
+        } else {
+            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+        }
+    }
+
+    /**
+     * The statuses a task is waited for, as given to
+     * {@link AsyncTaskMonitor#waitForStatus(TaskType, long, TaskStatus, TaskStatus...)}.
+     */
+    public static final class TargetStatus {
+        private final TaskStatus failOnStatus;
+        private final TaskStatus[] expectedTargetStatus;
+
+        /**
+         * @param failOnStatus
+         *            status on which the wait fails, or {@code null}
+         * @param expectedTargetStatus
+         *            statuses on which the wait succeeds
+         */
+        public TargetStatus(final TaskStatus failOnStatus, final TaskStatus... expectedTargetStatus) {
+            this.failOnStatus = failOnStatus;
+            this.expectedTargetStatus = expectedTargetStatus.clone();
+        }
+
+        /**
+         * @return {@code true} if a task in the specified status is no longer worth waiting for,
+         *         either because the status is expected, is the failure status or is final
+         */
+        public boolean isFinal(final String status) {
+            return isExpected(status) || isFailure(status)
+                    || FINAL_STATUSES.stream().anyMatch(finalStatus -> finalStatus.getLabel().equalsIgnoreCase(status));
+        }
+
+        /**
+         * @return {@code true} if the specified status is one of the expected statuses
+         */
+        public boolean isExpected(final String status) {
+            return Arrays.stream(expectedTargetStatus)
+                    .anyMatch(expected -> status.equalsIgnoreCase(expected.toString()));
+        }
+
+        /**
+         * @return {@code true} if the specified status is the failure status
+         */
+        public boolean isFailure(final String status) {
+            return failOnStatus != null && status.equalsIgnoreCase(failOnStatus.toString());
+        }
+
+        /**
+         * Ends a wait if the task has reached a final status.
+         * <P>
+         * The future is completed with the task if its status is expected, or exceptionally with a
+         * {@link VcdTaskException} if its status is otherwise final.
+         *
+         * @param task
+         *            the task as currently known to VCD
+         * @param future
+         *            the wait's future
+         * @return {@code true} if the task's status is final and the future has been completed
+         */
+        public boolean resolve(final TaskType task, final CompletableFuture<TaskType> future) {
+            final String status = task.getStatus();
+            if (isExpected(status)) {
+                future.complete(task);
+            } else if (isFinal(status)) {
+                future.completeExceptionally(new VcdTaskException(task.getOwner(), String.format(
+                        "Expected task status %s but got %s",
+                        Arrays.stream(expectedTargetStatus).map(TaskStatus::toString).collect(Collectors.joining(", ")),
+                        status), task.getError()));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -102,6 +102,37 @@ public interface VcdClient extends JaxRsClient {
      */
     void relogin();
 
+    /**
+     * Establishes a new session with the client credentials and switches this client to it in one
+     * step.
+     * <P>
+     * Unlike {@link #relogin()}, the login is performed on the side: requests issued while it is
+     * in progress continue to use the current session, and requests issued afterwards use the new
+     * one. The previous session is left to expire. Clients with session-less credentials need no
+     * refresh, and this method does nothing for them.
+     *
+     * @throws IllegalStateException
+     *             if the client was not logged in with client credentials
+     * @since 9.1
+     */
+    void refreshSession();
+
+    /**
+     * Re-establishes the session after a request issued by the current thread was rejected as
+     * unauthenticated, typically from an {@link com.vmware.cxfrestclient.JaxRsClient.ErrorHandler}
+     * before retrying the request.
+     * <P>
+     * When many threads sharing this client see their requests rejected at once, only one of them
+     * logs in; the others wait for that login and share its outcome. A thread whose request was
+     * issued with a session that has since been replaced returns immediately, as a retry will use
+     * the new session.
+     *
+     * @throws IllegalStateException
+     *             if the client was not logged in with client credentials
+     * @since 9.1
+     */
+    void reauthenticate();
+
     /**
      * Sets the credentials used for authentication.
      * If the credentials are not session-less, a login is immediately performed.
@@ -455,6 +486,8 @@ public interface VcdClient extends JaxRsClient {
      * <p>Note that to fetch an entity and cast it to its specialized JAXB binding the methods
      * {@link #getEntity(ReferenceType, Class)} and {@link #getEntity(ReferenceType, Class, ReferenceTypeChangedCallBack)}
      * are available.
+     * <p>Resolutions are cached by the client and reused until VCD reports the entity as not found
+     * or {@link #invalidateResolvedEntity(String)} is called for it.
      *
      * @param id the unique identifier of the entity to resolve
      * @return an instance of {@link EntityType}
@@ -464,6 +497,19 @@ public interface VcdClient extends JaxRsClient {
      */
     EntityType resolveEntityById(String id);
 
+    /**
+     * Discards any cached result of resolving the entity with the specified ID.
+     * <p>
+     * Results of {@link #resolveEntityById(String)} are cached by the client so that repeated
+     * resolutions of the same entity do not call the entity resolver again. Cached resolutions are
+     * dropped automatically when VCD reports the entity as not found; this method allows callers
+     * that learn of an entity's removal by other means (e.g. a delete notification) to drop it
+     * eagerly.
+     *
+     * @param id the unique identifier of the entity whose resolution is to be discarded
+     */
+    void invalidateResolvedEntity(String id);
+
     /**
      * Resolve a vCloud entity using its identifier and then fetch the corresponding vCloud entity instance.
      *
@@ -586,6 +632,14 @@ public interface VcdClient extends JaxRsClient {
          */
         Query<QueryResultClass> setFilter(String filter);
 
+        /**
+         * Gets query filter.
+         *
+         * @return the URL encoded query filter set by {@link #setFilter(String)} and
+         *         {@link #setEqualityFilter(String, String)}, or {@code null} if there is none
+         */
+        String getFilter();
+
         /**
          * Sets query fields.
          * <p>
@@ -654,6 +708,25 @@ public interface VcdClient extends JaxRsClient {
          */
         Query<QueryResultClass> setIncludeLinks(boolean includeLinks);
 
+        /**
+         * Enables adaptive page sizing.
+         * <p>
+         * The time taken to fetch and the size of each page are measured, and subsequent pages are
+         * requested at the largest size expected to stay within the target latency and byte budget,
+         * up to {@link #DEFAULT_MAX_PAGE_SIZE}. The size reached is remembered by the client and
+         * used as the starting size for the next adaptive query of the same type.
+         * <p>
+         * Page sizes chosen are powers of two. A page size or page set explicitly on this query
+         * applies to the first page only.
+         *
+         * @param targetLatencyMillis
+         *            desired time to fetch a page; {@code 0} disables adaptive page sizing
+         * @param byteBudget
+         *            maximum desired size of a page's response body; {@code 0} for no limit
+         * @return {@code this} instance to enable chaining of method invocations
+         */
+        Query<QueryResultClass> setAdaptivePageSize(long targetLatencyMillis, long byteBudget);
+
         /**
          * Executes the query and returns an iterator over list of pages of results. The iterator is
          * positioned just before the requested page so that calling {@code next()} returns the
@@ -683,6 +756,25 @@ public interface VcdClient extends JaxRsClient {
          * @throws MultipleRecordsException if the number of matches is greatr than 1
          */
         QueryResultClass findUnique();
+
+        /**
+         * Returns the number of results matching this query's filter, without retrieving them.
+         * <p>
+         * This requests a single result, in references format if the query type supports it, and
+         * returns the total reported by VCD. Counts are cached by the client for a few seconds, so
+         * repeated calls for the same query do not each result in a request.
+         *
+         * @return number of matching results
+         */
+        long count();
+
+        /**
+         * Convenience wrapper over {@link #count()} for checking whether any result matches this
+         * query's filter.
+         *
+         * @return {@code true} if at least one result matches
+         */
+        boolean exists();
     }
 
     /**
@@ -17,10 +17,15 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -50,6 +55,7 @@ import com.vmware.vcloud.api.rest.client.constants.RestAdminConstants;
 import com.vmware.vcloud.api.rest.client.constants.RestConstants;
 import com.vmware.vcloud.api.rest.client.constants.RestConstants.HttpStatusCodes;
 import com.vmware.vcloud.api.rest.client.filters.MultisiteAuthorizationFilter;
+import com.vmware.vcloud.api.rest.client.filters.ResponseSizeFilter;
 import com.vmware.vcloud.api.rest.client.impl.EventViewerImpl;
 import com.vmware.vcloud.api.rest.client.impl.tasks.VcdTaskMonitorImpl;
 import com.vmware.vcloud.api.rest.schema.versioning.SupportedVersionsType;
@@ -77,27 +83,30 @@ import com.vmware.vcloud.api.rest.version.ApiVersion;
 
 public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
-    private volatile String authenticationToken;
-    private volatile String jwtToken;
     private volatile ClientCredentials clientCredentials;
-    private volatile MultivaluedMap<String, Object> responseHeaders;
-    private final Map<String, String> cookies = new LinkedHashMap<String, String>();
+    // Replaced as a whole, by holders of sessionLock, whenever the session changes
+    private volatile SessionState session = SessionState.NONE;
+    private final Object sessionLock = new Object();
+    // Session the current thread's latest request was issued with
+    private final ThreadLocal<SessionState> requestSession = new ThreadLocal<>();
+    // Headers for the current session and settings, replaced when either changes
+    private volatile PreparedHeaders preparedHeaders;
+    // Re-authentication in progress, shared by all threads whose requests were rejected
+    private final Object reauthenticationLock = new Object();
+    private CompletableFuture<Void> reauthentication;
     private final VcdTaskMonitor taskMonitor = new VcdTaskMonitorImpl(this);
     private final EventViewer eventViewer = new EventViewerImpl(this);
-    private Map<String, URI> queryListMap = null;
+    private final EntityResolverCache entityResolverCache =
+            new EntityResolverCache(EntityResolverCache.DEFAULT_CAPACITY);
+    private final QueryCountCache queryCountCache = new QueryCountCache(QueryCountCache.DEFAULT_TTL_MILLIS);
+    // Page sizes learned by adaptive queries, keyed by query href
+    private final Map<String, Integer> learnedPageSizes = new ConcurrentHashMap<>();
 
     private static final String BEARER = "Bearer";
 
     private final String apiVersion;
-    private boolean federateRequests = false;
-    private String orgContext;
-    private String orgSecurityContext;
-
-    private URI sessionHref = null;
-
-    private URI loggedInAdminOrgEndpoint = null;
-
-    private Map<WellKnownEndpoint, URI> sessionEndpoints;
+    private volatile boolean federateRequests = false;
+    private volatile String orgContext;
 
     private static final Class<?>[] OBJECT_FACTORIES = new Class<?>[] {
             com.vmware.vcloud.api.rest.schema.versioning.ObjectFactory.class,
@@ -168,8 +177,85 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         }
     }
 
+    /**
+     * The state of a session: its tokens, cookies and well-known endpoints, along with lookups
+     * cached for the life of the session.
+     * <P>
+     * Instances are immutable, apart from the idempotent cached lookups, and are replaced as a whole
+     * whenever a session is established, refreshed or ended. A request reads the current instance
+     * once, so it always sees a consistent session without locking, however many threads share the
+     * client.
+     */
+    private static final class SessionState {
+        private static final SessionState NONE = new SessionState(null, null, null,
+                Collections.<String, String>emptyMap(), null, Collections.<WellKnownEndpoint, URI>emptyMap(), 0);
+
+        private final String authenticationToken;
+        private final String jwtToken;
+        private final String orgSecurityContext;
+        // Raw Set-Cookie header values, keyed by cookie name
+        private final Map<String, String> cookies;
+        private final URI sessionHref;
+        private final Map<WellKnownEndpoint, URI> sessionEndpoints;
+        // Incremented whenever a new session is established
+        private final long generation;
+
+        private volatile Map<String, URI> queryListMap;
+        private volatile URI loggedInAdminOrgEndpoint;
+
+        private SessionState(final String authenticationToken, final String jwtToken, final String orgSecurityContext,
+                final Map<String, String> cookies, final URI sessionHref, final Map<WellKnownEndpoint, URI> sessionEndpoints,
+                final long generation) {
+            this.authenticationToken = authenticationToken;
+            this.jwtToken = jwtToken;
+            this.orgSecurityContext = orgSecurityContext;
+            this.cookies = cookies;
+            this.sessionHref = sessionHref;
+            this.sessionEndpoints = sessionEndpoints;
+            this.generation = generation;
+        }
+
+        /**
+         * @return a copy of this state with the specified tokens and cookies, with which a session
+         *         is about to be established
+         */
+        SessionState withTokens(final String authenticationToken, final String jwtToken,
+                final String orgSecurityContext, final Map<String, String> cookies) {
+            return new SessionState(authenticationToken, jwtToken, orgSecurityContext,
+                    Collections.unmodifiableMap(new LinkedHashMap<>(cookies)), sessionHref, sessionEndpoints, generation);
+        }
+
+        /**
+         * @return a copy of this state for the specified newly established session
+         */
+        SessionState withSession(final SessionType session) {
+            return new SessionState(authenticationToken, jwtToken, orgSecurityContext, cookies,
+                    URI.create(session.getHref()),
+                    Collections.unmodifiableMap(WellKnownEndpoint.getSessionEndpoints(session)), generation + 1);
+        }
+
+        /**
+         * @return a copy of this state, which was established by another client, that supersedes
+         *         the specified state
+         */
+        SessionState superseding(final SessionState previous) {
+            return new SessionState(authenticationToken, jwtToken, orgSecurityContext, cookies, sessionHref,
+                    sessionEndpoints, previous.generation + 1);
+        }
+
+        /**
+         * @return a state with no session that supersedes this one
+         */
+        SessionState ended() {
+            return new SessionState(null, null, null, Collections.<String, String>emptyMap(), null,
+                    Collections.<WellKnownEndpoint, URI>emptyMap(), generation + 1);
+        }
+    }
+
     private final static List<?> PROVIDER_LIST = createJAXBElementProviderFromObjectFactories();
 
+    private final static ResponseSizeFilter RESPONSE_SIZE_FILTER = new ResponseSizeFilter();
+
     /**
      * Creates a {@link JAXBElementProvider} that will return {@link JAXBContext}s that handle all
      * the JAXB-generated types using object factories supplied to this method.
@@ -191,6 +277,7 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
     @Override
     protected List<?> getCxfProviders() {
         final List<Object> providers = PROVIDER_LIST.stream().collect(Collectors.toList());
+        providers.add(RESPONSE_SIZE_FILTER);
         if (clientCredentials instanceof VcdMultisiteLoginCredentials) {
             providers.add(new MultisiteAuthorizationFilter(
                     (VcdMultisiteLoginCredentials) clientCredentials));
@@ -250,7 +337,7 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
     }
 
     private URI getEndpoint(WellKnownEndpoint endpoint) {
-        return sessionEndpoints == null ? null : sessionEndpoints.get(endpoint);
+        return session.sessionEndpoints.get(endpoint);
     }
 
     /**
@@ -270,12 +357,14 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public SessionType getSession() {
+        final URI sessionHref = session.sessionHref;
         validateEndpoint(sessionHref);
         return getResource(sessionHref, SessionType.class);
     }
 
     @Override
     public MultisiteSessionUserInfoType getSessionUserInfo() {
+        final URI sessionHref = session.sessionHref;
         validateEndpoint(sessionHref);
         return getResource(UriBuilder.fromUri(sessionHref).path("userInfo").build(),
                 MultisiteSessionUserInfoType.class);
@@ -323,8 +412,28 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public EntityType resolveEntityById(String id) {
-        return getResource(UriBuilder.fromUri(validateEndpoint(WellKnownEndpoint.ENTITY_RESOLVER))
-                .path(id).build(), EntityType.class);
+        final EntityType cachedEntity = entityResolverCache.get(id);
+        if (cachedEntity != null) {
+            return cachedEntity;
+        }
+
+        final EntityType resolvedEntity;
+        try {
+            resolvedEntity = getResource(UriBuilder.fromUri(validateEndpoint(WellKnownEndpoint.ENTITY_RESOLVER))
+                    .path(id).build(), EntityType.class);
+        } catch (VcdErrorException e) {
+            if (e.getHttpStatusCode() == HttpStatusCodes.SC_NOT_FOUND) {
+                entityResolverCache.invalidate(id);
+            }
+            throw e;
+        }
+        entityResolverCache.put(id, resolvedEntity);
+        return resolvedEntity;
+    }
+
+    @Override
+    public void invalidateResolvedEntity(String id) {
+        entityResolverCache.invalidate(id);
     }
 
     @Override
@@ -338,8 +447,11 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         } else {
             // We indicate lack of admin access by throwing a missing link exception
             // for the 'admin' link as that would be pre-requisite to getting admin org link
+            final SessionState state = session;
+            URI loggedInAdminOrgEndpoint = state.loggedInAdminOrgEndpoint;
             if(loggedInAdminOrgEndpoint == null){
                 loggedInAdminOrgEndpoint = getLoggedInOrgAdminURI();
+                state.loggedInAdminOrgEndpoint = loggedInAdminOrgEndpoint;
             }
             validateEndpoint(loggedInAdminOrgEndpoint, RelationType.DOWN,
                              RestAdminConstants.MediaType.VCLOUDM);
@@ -380,7 +492,7 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
      */
     private void validateEndpoint(URI endpoint, RelationType rel, String mediaType) {
         if (endpoint == null) {
-            throw new MissingLinkException(sessionHref.toASCIIString(), rel, mediaType);
+            throw new MissingLinkException(session.sessionHref.toASCIIString(), rel, mediaType);
         }
     }
 
@@ -398,6 +510,10 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     protected String[] getAcceptHeaders() {
+        return getAcceptHeaders(federateRequests);
+    }
+
+    private String[] getAcceptHeaders(final boolean federateRequests) {
         StringBuffer acceptHeader = new StringBuffer("application/*+xml");
 
         if (apiVersion != null) {
@@ -413,37 +529,117 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public void setAuthenticationHeader(final Client client) {
-        if (jwtToken != null) {
-            client.header("Authorization", BEARER + " " + jwtToken);
-            if (orgSecurityContext != null) {
-                client.header(RestConstants.VCLOUD_AUTH_CONTEXT_HEADER, orgSecurityContext);
+        setAuthenticationHeader(client, session);
+    }
+
+    private void setAuthenticationHeader(final Client client, final SessionState state) {
+        final RequestHeaders.Builder headers = RequestHeaders.builder();
+        addAuthenticationHeader(headers, state, clientCredentials);
+        headers.build().applyTo(client);
+    }
+
+    private static void addAuthenticationHeader(final RequestHeaders.Builder headers, final SessionState state,
+            final ClientCredentials credentials) {
+        if (state.jwtToken != null) {
+            headers.header("Authorization", BEARER + " " + state.jwtToken);
+            if (state.orgSecurityContext != null) {
+                headers.header(RestConstants.VCLOUD_AUTH_CONTEXT_HEADER, state.orgSecurityContext);
             }
-        } else if (hasSessionlessClientCredentials()) {
-            client.header(clientCredentials.getHeaderName(), clientCredentials.getHeaderValue());
-        } else if (authenticationToken != null) {
-            client.header(RestConstants.VCLOUD_AUTHENTICATION_HEADER, authenticationToken);
+        } else if (credentials != null && credentials.supportsSessionless()) {
+            headers.header(credentials.getHeaderName(), credentials.getHeaderValue());
+        } else if (state.authenticationToken != null) {
+            headers.header(RestConstants.VCLOUD_AUTHENTICATION_HEADER, state.authenticationToken);
         }
     }
 
     @Override
     protected void setAuthenticationHeaders(final Client client) {
-        setAuthenticationHeader(client);
-        if (cookies.containsKey(RestConstants.JWT_COOKIE_NAME)) {
-            addCookie(RestConstants.JWT_COOKIE_NAME, client);
+        getPreparedHeaders().authentication.applyTo(client);
+    }
+
+    @Override
+    RequestHeaders getRequestHeaders() {
+        return getPreparedHeaders().all;
+    }
+
+    /**
+     * @return headers for the current session and settings, prepared now if they have changed
+     *         since the headers were last prepared
+     */
+    private PreparedHeaders getPreparedHeaders() {
+        final SessionState state = session;
+        final ClientCredentials credentials = clientCredentials;
+        final String orgContext = this.orgContext;
+        final boolean federateRequests = this.federateRequests;
+        requestSession.set(state);
+
+        PreparedHeaders prepared = preparedHeaders;
+        if (prepared == null || !prepared.isFor(state, credentials, orgContext, federateRequests)) {
+            prepared = new PreparedHeaders(state, credentials, orgContext, federateRequests);
+            preparedHeaders = prepared;
         }
+        return prepared;
+    }
+
+    /**
+     * The headers sent with every request, prepared once for a session state and the client
+     * settings that affect them. Preparing them parses the session's cookies and formats the
+     * authentication and accept headers, so that requests need only copy them.
+     */
+    private final class PreparedHeaders {
+        private final SessionState state;
+        private final ClientCredentials credentials;
+        private final String orgContext;
+        private final boolean federateRequests;
+
+        // Authentication headers and cookies
+        private final RequestHeaders authentication;
+        // Accept, authentication and org context headers, and cookies
+        private final RequestHeaders all;
+
+        PreparedHeaders(final SessionState state, final ClientCredentials credentials, final String orgContext,
+                final boolean federateRequests) {
+            this.state = state;
+            this.credentials = credentials;
+            this.orgContext = orgContext;
+            this.federateRequests = federateRequests;
+
+            final RequestHeaders.Builder authenticationHeaders = RequestHeaders.builder();
+            addAuthenticationHeader(authenticationHeaders, state, credentials);
+            final Map<String, String> cookies = state.cookies;
+            if (cookies.containsKey(RestConstants.JWT_COOKIE_NAME)) {
+                addCookie(authenticationHeaders, cookies, RestConstants.JWT_COOKIE_NAME);
+            }
 
-        if (cookies.containsKey(RestConstants.SESSION_COOKIE_NAME)) {
-            addCookie(RestConstants.SESSION_COOKIE_NAME, client);
-        } else if (cookies.containsKey(RestConstants.VCLOUD_COOKIE_NAME)) {
-            addCookie(RestConstants.VCLOUD_COOKIE_NAME, client);
+            if (cookies.containsKey(RestConstants.SESSION_COOKIE_NAME)) {
+                addCookie(authenticationHeaders, cookies, RestConstants.SESSION_COOKIE_NAME);
+            } else if (cookies.containsKey(RestConstants.VCLOUD_COOKIE_NAME)) {
+                addCookie(authenticationHeaders, cookies, RestConstants.VCLOUD_COOKIE_NAME);
+            }
+            authentication = authenticationHeaders.build();
+
+            final RequestHeaders.Builder allHeaders = RequestHeaders.builder()
+                    .accept(getAcceptHeaders(federateRequests))
+                    .headers(authentication);
+            if (orgContext != null) {
+                allHeaders.header(RestConstants.VCLOUD_ORG_CONTEXT_HEADER, orgContext);
+            }
+            all = allHeaders.build();
+        }
+
+        boolean isFor(final SessionState state, final ClientCredentials credentials, final String orgContext,
+                final boolean federateRequests) {
+            return this.state == state && this.credentials == credentials
+                    && Objects.equals(this.orgContext, orgContext) && this.federateRequests == federateRequests;
         }
     }
 
-    private void addCookie(final String cookieName, final Client client) {
+    private static void addCookie(final RequestHeaders.Builder headers, final Map<String, String> cookies,
+            final String cookieName) {
         final String rawCookie = cookies.get(cookieName);
         final String cookieValue = rawCookie.substring(rawCookie.indexOf("=") + 1);
-        final Cookie cookie = new Cookie(cookieName, cookieValue);
-        client.cookie(cookie);
+        // Formatted like Client.cookie(Cookie) would
+        headers.header(HttpHeaders.COOKIE, new Cookie(cookieName, cookieValue));
     }
 
     @Override
@@ -471,10 +667,10 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public void loginWithJwt(final String jwt, final String orgSecurityContext) {
-        this.orgSecurityContext = orgSecurityContext;
-
-        clientCredentials = null;
-        jwtToken = jwt;
+        synchronized (sessionLock) {
+            clientCredentials = null;
+            session = session.withTokens(session.authenticationToken, jwt, orgSecurityContext, session.cookies);
+        }
 
         doInitClient();
     }
@@ -489,10 +685,14 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
             throw new AssertionError("Invalid session token.");
         }
         final SessionTokenImpl sessionTokenImpl = (SessionTokenImpl) sessionToken;
-        this.authenticationToken = sessionTokenImpl.getAuthenticationToken();
-        final String vCloudTokenCookie = sessionTokenImpl.getVCloudToken();
-        if (vCloudTokenCookie != null) {
-            this.cookies.put(RestConstants.VCLOUD_COOKIE_NAME, vCloudTokenCookie);
+        synchronized (sessionLock) {
+            final Map<String, String> cookies = new LinkedHashMap<>(session.cookies);
+            final String vCloudTokenCookie = sessionTokenImpl.getVCloudToken();
+            if (vCloudTokenCookie != null) {
+                cookies.put(RestConstants.VCLOUD_COOKIE_NAME, vCloudTokenCookie);
+            }
+            session = session.withTokens(sessionTokenImpl.getAuthenticationToken(), session.jwtToken,
+                    session.orgSecurityContext, cookies);
         }
 
         doInitClient();
@@ -520,20 +720,17 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         final Response response = isLogin ? client.post(null) : client.get();
         checkResponse(response, HttpURLConnection.HTTP_OK);
 
-        SessionType session = response.readEntity(SessionType.class);
-        responseHeaders = response.getMetadata();
+        final SessionType sessionType = response.readEntity(SessionType.class);
 
         // Processing the headers is only necessary after the login, because if the session
         // is being reused, the authentication token and vcloud token have already been set.
-        // In the case of a login (new session) we need to process the headers and reconfigure
-        // the client's headers, as the auth token and vcloud token have been retrieved.
-        if (isLogin && !hasSessionlessClientCredentials()) {
-            processHeaders();
-            configureHttpRequestHeaders(client);
+        // In the case of a login (new session) the auth token and vcloud token retrieved are
+        // published along with the session, so that requests never see one without the other.
+        synchronized (sessionLock) {
+            final SessionState tokens = (isLogin && !hasSessionlessClientCredentials())
+                    ? processHeaders(response.getMetadata()) : session;
+            session = tokens.withSession(sessionType);
         }
-
-        sessionHref = URI.create(session.getHref());
-        sessionEndpoints = WellKnownEndpoint.getSessionEndpoints(session);
     }
 
     /**
@@ -575,40 +772,44 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public SessionToken getSessionToken() {
-        if (authenticationToken != null) {
-            return new SessionTokenImpl(authenticationToken,
-                    cookies.get(RestConstants.VCLOUD_COOKIE_NAME));
+        final SessionState state = session;
+        if (state.authenticationToken != null) {
+            return new SessionTokenImpl(state.authenticationToken,
+                    state.cookies.get(RestConstants.VCLOUD_COOKIE_NAME));
         }
         return null;
     }
 
     @Override
     public String getJwtToken() {
-        return jwtToken;
+        return session.jwtToken;
     }
 
-    private void processHeaders() {
-        authenticationToken = (String) responseHeaders.getFirst(RestConstants.VCLOUD_AUTHENTICATION_HEADER);
+    /**
+     * @return a copy of the current session state with the tokens and cookies of the specified
+     *         login response
+     */
+    private SessionState processHeaders(final MultivaluedMap<String, Object> responseHeaders) {
+        final String authenticationToken = (String) responseHeaders.getFirst(RestConstants.VCLOUD_AUTHENTICATION_HEADER);
         if (authenticationToken == null) {
             throw new RuntimeException("The login response is missing a " +  RestConstants.VCLOUD_AUTHENTICATION_HEADER + " cookie");
         }
 
         final String accessToken =
                 (String) responseHeaders.getFirst(RestConstants.VCLOUD_ACCESS_TOKEN_HEADER);
-        if (accessToken != null) {
-            jwtToken = accessToken;
-        }
+        final String jwtToken = (accessToken != null) ? accessToken : session.jwtToken;
 
+        final Map<String, String> cookies = new LinkedHashMap<>(session.cookies);
         final List<Object> rawCookies = responseHeaders.get("Set-Cookie");
-        if (rawCookies == null) {
-            return;
+        if (rawCookies != null) {
+            for (Object o : rawCookies) {
+                final String rawCookie = (String) o;
+                final String name = rawCookie.substring(0, rawCookie.indexOf("="));
+                cookies.put(name, rawCookie);
+            }
         }
 
-        for (Object o : rawCookies) {
-            final String rawCookie = (String) o;
-            final String name = rawCookie.substring(0, rawCookie.indexOf("="));
-            cookies.put(name, rawCookie);
-        }
+        return session.withTokens(authenticationToken, jwtToken, session.orgSecurityContext, cookies);
     }
 
     private enum WellKnownEndpoint {
@@ -684,13 +885,85 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         }
     }
 
+    @Override
+    public void refreshSession() {
+        final ClientCredentials credentials = clientCredentials;
+        if (credentials == null) {
+            throw new IllegalStateException("Only a session established with client credentials can be refreshed");
+        }
+        if (credentials.supportsSessionless()) {
+            return;
+        }
+
+        // Log in on the side so that requests keep using the current session until the new one
+        // is complete
+        final VcdClientImpl refreshedClient = new VcdClientImpl(this);
+        refreshedClient.setCredentials(credentials);
+        synchronized (sessionLock) {
+            if (clientCredentials != credentials) {
+                // Credentials changed while refreshing; the new session is theirs to establish
+                return;
+            }
+            session = refreshedClient.session.superseding(session);
+        }
+    }
+
+    @Override
+    public void reauthenticate() {
+        final ClientCredentials credentials = clientCredentials;
+        if (credentials == null) {
+            throw new IllegalStateException("Only a session established with client credentials can be re-established");
+        }
+
+        final SessionState failedSession = requestSession.get();
+        final CompletableFuture<Void> login;
+        final boolean leader;
+        synchronized (reauthenticationLock) {
+            if (failedSession != null && failedSession.generation < session.generation) {
+                // The rejected request used a session that has since been replaced
+                return;
+            }
+            leader = (reauthentication == null);
+            if (leader) {
+                reauthentication = new CompletableFuture<>();
+            }
+            login = reauthentication;
+        }
+
+        if (!leader) {
+            try {
+                login.join();
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+            }
+            return;
+        }
+
+        try {
+            if (credentials.supportsSessionless()) {
+                setCredentials(credentials);
+            } else {
+                refreshSession();
+            }
+            login.complete(null);
+        } catch (RuntimeException e) {
+            login.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (reauthenticationLock) {
+                reauthentication = null;
+            }
+        }
+    }
+
     @Override
     public VcdClient duplicate(boolean newSession) throws VcdErrorException {
         VcdClientImpl duplicateClient = new VcdClientImpl(this);
         if (newSession) {
             duplicateClient.setCredentials(clientCredentials);
-        } else if (jwtToken != null) {
-            duplicateClient.loginWithJwt(jwtToken, orgSecurityContext);
+        } else if (session.jwtToken != null) {
+            final SessionState state = session;
+            duplicateClient.loginWithJwt(state.jwtToken, state.orgSecurityContext);
         } else {
             duplicateClient.loginWithToken(getSessionToken());
         }
@@ -698,12 +971,11 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
     }
 
     private void clearSessionData() {
-        cookies.clear();
-        sessionEndpoints = null;
-        loggedInAdminOrgEndpoint = null;
-        authenticationToken = null;
-        sessionHref = null;
-        jwtToken = null;
+        synchronized (sessionLock) {
+            session = session.ended();
+        }
+        entityResolverCache.clear();
+        queryCountCache.clear();
     }
 
     @Override
@@ -749,7 +1021,27 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
     @Override
     public <ResponseClass extends EntityType> ResponseClass getEntity(String entityId, String mediaType, Class<ResponseClass> responseClass) {
+        final boolean wasCached = entityResolverCache.get(entityId) != null;
         EntityType resolvedEntity = resolveEntityById(entityId);
+        try {
+            return getResource(
+                            resolvedEntity,
+                            RelationType.ALTERNATE,
+                            mediaType,
+                            responseClass);
+        } catch (VcdErrorException e) {
+            if (e.getHttpStatusCode() != HttpStatusCodes.SC_NOT_FOUND) {
+                throw e;
+            }
+            // The cached resolution is stale (the entity has moved or was removed); drop it
+            // and, if it came from the cache, give the entity resolver one more chance.
+            entityResolverCache.invalidate(entityId);
+            if (!wasCached) {
+                throw e;
+            }
+        }
+
+        resolvedEntity = resolveEntityById(entityId);
         return getResource(
                         resolvedEntity,
                         RelationType.ALTERNATE,
@@ -943,12 +1235,16 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
     }
 
     private Map<String, URI> getQueryListMap() {
+        final SessionState state = session;
+        Map<String, URI> queryListMap = state.queryListMap;
         if (queryListMap == null) {
-            queryListMap = new HashMap<String, URI>();
+            final Map<String, URI> queries = new HashMap<String, URI>();
             for (final LinkType link : getQueryList().getLink()) {
                 final String queryListKey = makeQueryListMapKey(link.getType(), link.getName());
-                queryListMap.put(queryListKey, URI.create(link.getHref()));
+                queries.put(queryListKey, URI.create(link.getHref()));
             }
+            queryListMap = Collections.unmodifiableMap(queries);
+            state.queryListMap = queryListMap;
         }
 
         return queryListMap;
@@ -961,11 +1257,20 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         // boolean indicating whether 'container' has the results which can be returned from next()
         // or whether next() should fetch results by following next-page link in the container
         private boolean nextPageAvailable;
+        // when set, subsequent pages are fetched at adaptively chosen sizes instead of following
+        // the next-page link
+        private final AdaptivePaging adaptivePaging;
 
         public QueryResultPageIterator(final ContainerType containerType, final Class<T> queryResultClass) {
+            this(containerType, queryResultClass, null);
+        }
+
+        QueryResultPageIterator(final ContainerType containerType, final Class<T> queryResultClass,
+                final AdaptivePaging adaptivePaging) {
             this.container = containerType;
             this.queryResultClass = queryResultClass;
             this.nextPageAvailable = true;
+            this.adaptivePaging = adaptivePaging;
         }
 
         @Override
@@ -982,6 +1287,8 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
             if (nextPageAvailable) {
                 nextPageAvailable = false;
+            } else if (adaptivePaging != null && getNextPageUri() != null) {
+                container = adaptivePaging.fetchNextPage(container);
             } else {
                 container = getResource(getNextPageUri(), container.getClass());
             }
@@ -1085,6 +1392,48 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         }
     }
 
+    /**
+     * Fetches query pages, measuring each page's latency and size to pick the size of the next.
+     */
+    private final class AdaptivePaging {
+        private final AdaptivePageSizer pageSizer;
+        private final BiFunction<Integer, Integer, URI> pageUriBuilder;
+        private final String queryKey;
+
+        AdaptivePaging(final AdaptivePageSizer pageSizer, final BiFunction<Integer, Integer, URI> pageUriBuilder,
+                final String queryKey) {
+            this.pageSizer = pageSizer;
+            this.pageUriBuilder = pageUriBuilder;
+            this.queryKey = queryKey;
+        }
+
+        <C extends ContainerType> C fetch(final URI pageUri, final Class<C> containerClass) {
+            final long start = System.nanoTime();
+            final C page;
+            final long bytes;
+            ResponseSizeFilter.startMeasuring();
+            try {
+                page = getResource(pageUri, containerClass);
+            } finally {
+                bytes = ResponseSizeFilter.stopMeasuring();
+            }
+
+            final int records = (page instanceof QueryResultRecordsType)
+                    ? ((QueryResultRecordsType) page).getRecord().size()
+                    : ((ReferencesType) page).getReference().size();
+            pageSizer.recordPage(records, System.nanoTime() - start, bytes);
+            learnedPageSizes.put(queryKey, pageSizer.getTargetPageSize());
+            return page;
+        }
+
+        ContainerType fetchNextPage(final ContainerType currentPage) {
+            final long offset = (long) currentPage.getPage() * currentPage.getPageSize();
+            final int pageSize = pageSizer.nextPageSize(offset);
+            final URI pageUri = pageUriBuilder.apply((int) (offset / pageSize) + 1, pageSize);
+            return fetch(pageUri, currentPage.getClass());
+        }
+    }
+
     private static String makeQueryListMapKey(String mediaType, String queryTypeName) {
         return mediaType + "!" + queryTypeName;
     }
@@ -1109,6 +1458,14 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
             }
             return queryHref;
         }
+
+        @Override
+        protected QueryResultFormat getCountQueryResultFormat(final QueryResultFormat format) {
+            // References carry no attributes, making them the smallest response which reports a total
+            final String referencesKey =
+                    makeQueryListMapKey(QueryResultFormat.REFERENCES.getMediaType(), queryTypeName);
+            return getQueryListMap().containsKey(referencesKey) ? QueryResultFormat.REFERENCES : format;
+        }
     }
 
     private abstract class AbstractQuery<QueryResultClass> implements Query<QueryResultClass> {
@@ -1124,6 +1481,8 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
         private String fields;
         private String sortDesc;
         private String sortAsc;
+        private long adaptiveTargetLatencyMillis;
+        private long adaptiveByteBudget;
 
         public AbstractQuery(final Class<QueryResultClass> queryResultClass) {
             this.queryResultClass = queryResultClass;
@@ -1175,6 +1534,11 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
             return this;
         }
 
+        @Override
+        public String getFilter() {
+            return filter;
+        }
+
         @Override
         public Query<QueryResultClass> setFields(Collection<String> fields) {
             this.fields = fields.stream().collect(Collectors.joining(","));
@@ -1216,27 +1580,59 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
             return this;
         }
 
+        @Override
+        public Query<QueryResultClass> setAdaptivePageSize(long targetLatencyMillis, long byteBudget) {
+            if (targetLatencyMillis < 0) {
+                throw new IllegalArgumentException("targetLatencyMillis");
+            }
+            if (byteBudget < 0) {
+                throw new IllegalArgumentException("byteBudget");
+            }
+            this.adaptiveTargetLatencyMillis = targetLatencyMillis;
+            this.adaptiveByteBudget = byteBudget;
+            return this;
+        }
+
         @Override
         public ListIterator<QueryListPage<QueryResultClass>> execute() {
-            final URI queryUri =
-                    buildQueryUri(findQueryUri(queryResultFormat), page, pageSize,
-                            filter, includeLinks);
+            final Class<? extends ContainerType> containerClass;
             if (QueryResultRecordType.class.isAssignableFrom(queryResultClass)) {
-                final QueryResultRecordsType queryResultRecordsType =
-                        getResource(queryUri, QueryResultRecordsType.class);
-                return new QueryResultPageIterator<QueryResultClass>(
-                        queryResultRecordsType, queryResultClass);
+                containerClass = QueryResultRecordsType.class;
+            } else if (ReferenceType.class.isAssignableFrom(queryResultClass)) {
+                containerClass = ReferencesType.class;
+            } else {
+                assert false : "Unexpected type of query results: " + queryResultClass;
+                return null;
             }
 
-            if (ReferenceType.class.isAssignableFrom(queryResultClass)) {
-                final ReferencesType referencesType =
-                        getResource(queryUri, ReferencesType.class);
-                return new QueryResultPageIterator<QueryResultClass>(referencesType,
-                        queryResultClass);
+            final URI baseQueryHref = findQueryUri(queryResultFormat);
+            if (adaptiveTargetLatencyMillis == 0) {
+                final URI queryUri =
+                        buildQueryUri(baseQueryHref, page, pageSize, filter, fields, includeLinks);
+                return new QueryResultPageIterator<QueryResultClass>(
+                        getResource(queryUri, containerClass), queryResultClass);
             }
 
-            assert false : "Unexpected type of query results: " + queryResultClass;
-            return null;
+            final String queryKey = baseQueryHref.toString();
+            final AdaptivePageSizer pageSizer = new AdaptivePageSizer(adaptiveTargetLatencyMillis,
+                    adaptiveByteBudget, DEFAULT_MAX_PAGE_SIZE,
+                    pageSize != DEFAULT_PAGE_SIZE ? pageSize
+                            : learnedPageSizes.getOrDefault(queryKey, AdaptivePageSizer.INITIAL_PAGE_SIZE));
+            final String pageFilter = filter;
+            final String pageFields = fields;
+            final boolean pageIncludeLinks = includeLinks;
+            final AdaptivePaging adaptivePaging = new AdaptivePaging(pageSizer,
+                    (p, s) -> buildQueryUri(baseQueryHref, p, s, pageFilter, pageFields, pageIncludeLinks),
+                    queryKey);
+
+            // The first page is fetched as requested; only a first page of unspecified size
+            // starts at the learned size
+            final int firstPageSize =
+                    (page == 1 && pageSize == DEFAULT_PAGE_SIZE) ? pageSizer.getTargetPageSize() : pageSize;
+            final URI queryUri =
+                    buildQueryUri(baseQueryHref, page, firstPageSize, filter, fields, includeLinks);
+            return new QueryResultPageIterator<QueryResultClass>(
+                    adaptivePaging.fetch(queryUri, containerClass), queryResultClass, adaptivePaging);
         }
 
         @Override
@@ -1245,10 +1641,44 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
                                 .flatMap(page -> page.getPage().stream());
         }
 
+        @Override
+        public long count() {
+            final QueryResultFormat countFormat = getCountQueryResultFormat(queryResultFormat);
+            // References carry no attributes; for records the query's own projection, if any, is
+            // kept as the only projection known to be valid for this query type.
+            final URI countUri = buildQueryUri(findQueryUri(countFormat), 1, 1, filter,
+                    countFormat == QueryResultFormat.REFERENCES ? null : fields, false);
+
+            final String cacheKey = countUri.toASCIIString();
+            final Long cachedCount = queryCountCache.get(cacheKey);
+            if (cachedCount != null) {
+                return cachedCount;
+            }
+
+            final ContainerType container = (countFormat == QueryResultFormat.REFERENCES)
+                    ? getResource(countUri, ReferencesType.class)
+                    : getResource(countUri, QueryResultRecordsType.class);
+            final long count = container.getTotal() == null ? 0 : container.getTotal();
+            queryCountCache.put(cacheKey, count);
+            return count;
+        }
+
+        @Override
+        public boolean exists() {
+            return count() > 0;
+        }
+
         abstract protected URI findQueryUri(final QueryResultFormat format);
 
+        /**
+         * Returns the query result format to use when only counting results.
+         */
+        protected QueryResultFormat getCountQueryResultFormat(final QueryResultFormat format) {
+            return format;
+        }
+
         private URI buildQueryUri(final URI baseQueryHref, final int page,
-                final int pageSize, final String filter, final boolean includeLinks) {
+                final int pageSize, final String filter, final String fields, final boolean includeLinks) {
             final UriBuilder builder = UriBuilder.fromUri(baseQueryHref);
             final AtomicInteger index = new AtomicInteger(0);
             final Map<String, Object> paramArgs = new HashMap<>();
@@ -1307,7 +1737,7 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
 
         @Override
         public String toString() {
-            URI u = buildQueryUri(findQueryUri(queryResultFormat), page, pageSize, filter, includeLinks);
+            URI u = buildQueryUri(findQueryUri(queryResultFormat), page, pageSize, filter, fields, includeLinks);
             return u.toASCIIString();
         }
 
@@ -1358,8 +1788,10 @@ public class VcdClientImpl extends AbstractVcdClientBase implements VcdClient {
     }
 
     private void setCredentialsInternal(ClientCredentials credentials) {
-        this.clientCredentials = credentials;
-        this.jwtToken = null;
+        synchronized (sessionLock) {
+            this.clientCredentials = credentials;
+            session = session.withTokens(session.authenticationToken, null, session.orgSecurityContext, session.cookies);
+        }
     }
 
     private void dologinInternal(ClientCredentials credentials) {
@@ -6,9 +6,12 @@
 
 package com.vmware.vcloud.api.rest.client;
 
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 
@@ -69,6 +72,85 @@ public interface VcdTaskMonitor extends TaskMonitor {
          *         {@code Future} will stop the underlying tracking.
          */
         Future<Map<String, TaskStatus>> toTrackingFuture();
+
+        /**
+         * Register a listener to be notified of each tracked task's final {@link TaskStatus} as
+         * soon as it is known, without waiting for the remaining tasks.
+         * <P>
+         * The listener is called once per tracked task with the task {@code URN} and its final
+         * status; tasks whose completion was already known when the listener was added are reported
+         * immediately. Listeners are called on the tracker's polling thread and should return
+         * quickly. A listener throwing an exception fails the tracking {@link Future}.
+         *
+         * @param listener
+         *            callback accepting a task {@code URN} and its final status
+         * @since 9.1
+         */
+        void addCompletionListener(BiConsumer<String, TaskStatus> listener);
+
+        /**
+         * Get a snapshot of the tracker's progress so far.
+         *
+         * @return counts of tracked and completed tasks
+         * @since 9.1
+         */
+        Progress getProgress();
+
+        /**
+         * Get the tracked tasks whose final status is not yet known.
+         *
+         * @return snapshot of the {@code URN}s of the tasks still pending
+         * @since 9.1
+         */
+        Set<String> getPendingTaskIds();
+
+        /**
+         * Snapshot of a {@link MultiTaskTracker}'s progress.
+         *
+         * @since 9.1
+         */
+        final class Progress {
+            private final int tracked;
+            private final Map<TaskStatus, Integer> completed;
+
+            public Progress(final int tracked, final Map<TaskStatus, Integer> completed) {
+                this.tracked = tracked;
+                this.completed = completed;
+            }
+
+            /**
+             * @return number of tasks added to the tracker
+             */
+            public int getTracked() {
+                return tracked;
+            }
+
+            /**
+             * @return number of tracked tasks whose final status is known
+             */
+            public int getCompleted() {
+                return completed.values().stream().mapToInt(Integer::intValue).sum();
+            }
+
+            /**
+             * @return number of tracked tasks that completed with the specified status
+             */
+            public int getCompleted(final TaskStatus status) {
+                return completed.getOrDefault(status, 0);
+            }
+
+            /**
+             * @return number of tracked tasks whose final status is not yet known
+             */
+            public int getPending() {
+                return tracked - getCompleted();
+            }
+
+            @Override
+            public String toString() {
+                return String.format("%d/%d tasks completed %s", getCompleted(), tracked, completed);
+            }
+        }
     }
 
     /**
@@ -77,4 +159,34 @@ public interface VcdTaskMonitor extends TaskMonitor {
      * @return a new instance of {@link MultiTaskTracker}
      */
     MultiTaskTracker getMultiTaskTracker();
+
+    /**
+     * Get a {@link MultiTaskTracker} that records the tasks it tracks, their final statuses as they
+     * become known and its polling progress in an append-only journal file.
+     * <P>
+     * If the journal already exists, such as after a restart of the process that created it, the
+     * tracker is rebuilt from it: tasks recorded as tracked are tracked again and polling resumes
+     * from the recorded progress, so that the outcome of tasks that completed in the meantime is
+     * found by a single catch-up query. If the journal records that all tasks had been added, no
+     * more tasks can be tracked and {@link MultiTaskTracker#toTrackingFuture()} should be called to
+     * obtain the result.
+     *
+     * @param journal
+     *            path of the journal file, which is created if it does not exist
+     * @return a new instance of {@link MultiTaskTracker}
+     * @throws java.io.UncheckedIOException
+     *             if the journal cannot be opened
+     * @throws IllegalStateException
+     *             if the file is not a valid journal
+     * @since 9.1
+     */
+    MultiTaskTracker getMultiTaskTracker(Path journal);
+
+    /**
+     * Get the {@link AsyncTaskMonitor} for waiting for tasks without blocking a thread per task.
+     *
+     * @return an {@link AsyncTaskMonitor} using the same client as this monitor
+     * @since 9.1
+     */
+    AsyncTaskMonitor getAsyncTaskMonitor();
 }
@@ -34,6 +34,7 @@ public enum RelationType implements LinkRelation {
     FIRST_PAGE("firstPage",ApiVersion.VERSION_1_5),
     LAST_PAGE("lastPage", ApiVersion.VERSION_1_5),
     ENTITY_RESOLVER("entityResolver", ApiVersion.VERSION_1_5),
+    TASK_CANCEL("task:cancel", ApiVersion.VERSION_1_5),
     API_EXTENSIBILITY("down:extensibility", ApiVersion.VERSION_5_1),
     OPENAPI("openapi", ApiVersion.VERSION_29_0);
 
@@ -11,6 +11,7 @@ import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgType;
 import com.vmware.vcloud.api.rest.schema_v1_5.ReferencesType;
 import com.vmware.vcloud.api.rest.schema_v1_5.SessionType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 import com.vmware.vcloud.api.rest.schema_v1_5.UserType;
 import com.vmware.vcloud.api.rest.schema_v1_5.extension.VMWExtensionType;
 
@@ -40,6 +41,7 @@ public interface RestConstants {
         public static final String IDRECORDS = "application/vnd.vmware.vcloud.query.idrecords" + XML_FORMAT_SUFFIX;
         public static final String QUERY_LIST = "application/vnd.vmware.vcloud.query.queryList" + XML_FORMAT_SUFFIX;
         public static final String SESSION = SessionType.CONTENT_TYPE + XML_FORMAT_SUFFIX;
+        public static final String TASK = TaskType.CONTENT_TYPE + XML_FORMAT_SUFFIX;
         public static final String API_EXTENSIBILITY = ApiExtensibilityType.CONTENT_TYPE + XML_FORMAT_SUFFIX;
         public static final String VMW_EXTENSION = VMWExtensionType.CONTENT_TYPE + XML_FORMAT_SUFFIX;
 
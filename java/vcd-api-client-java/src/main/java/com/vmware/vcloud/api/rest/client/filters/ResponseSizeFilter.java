@@ -0,0 +1,92 @@
+/* *********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.filters;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Filter for counting the bytes of response bodies read by the current thread.
+ * <P>
+ * Measurement is opt-in per thread: between {@link #startMeasuring()} and {@link #stopMeasuring()}
+ * the entity stream of every response received on the calling thread is wrapped to count the
+ * bytes consumed while it is read (and unmarshalled). Responses received while the thread is not
+ * measuring are passed through untouched.
+ *
+ * @since 9.1
+ */
+public class ResponseSizeFilter implements ClientResponseFilter {
+
+    private static final ThreadLocal<long[]> BYTES_READ = new ThreadLocal<>();
+
+    /**
+     * Starts counting response bytes read by the current thread.
+     */
+    public static void startMeasuring() {
+        BYTES_READ.set(new long[1]);
+    }
+
+    /**
+     * Stops counting response bytes read by the current thread.
+     *
+     * @return bytes read since {@link #startMeasuring()}, or {@code -1} if the thread was not
+     *         measuring
+     */
+    public static long stopMeasuring() {
+        final long[] bytesRead = BYTES_READ.get();
+        BYTES_READ.remove();
+        return bytesRead == null ? -1 : bytesRead[0];
+    }
+
+    @Override
+    public void filter(final ClientRequestContext requestContext, final ClientResponseContext responseContext)
+            throws IOException {
+        final long[] bytesRead = BYTES_READ.get();
+        if (bytesRead != null && responseContext.hasEntity()) {
+            responseContext.setEntityStream(new CountingInputStream(responseContext.getEntityStream(), bytesRead));
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final long[] bytesRead;
+
+        CountingInputStream(final InputStream in, final long[] bytesRead) {
+            super(in);
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                bytesRead[0]++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead[0] += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            bytesRead[0] += skipped;
+            return skipped;
+        }
+    }
+}
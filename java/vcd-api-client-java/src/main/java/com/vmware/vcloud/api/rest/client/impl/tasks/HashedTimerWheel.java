@@ -0,0 +1,204 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.impl.tasks;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel: a timer that can hold a very large number of pending timeouts at constant
+ * cost per schedule and cancel, at the expense of firing them only to the precision of a tick.
+ * <P>
+ * The wheel is an array of buckets, one per tick, that a single daemon thread visits in turn. A
+ * timeout is placed in the bucket of its deadline's tick, along with the number of complete
+ * revolutions of the wheel remaining before it is due. Timeouts due in the same tick therefore fire
+ * together, which callers can exploit to batch work.
+ * <P>
+ * Timeout actions run on the wheel's thread and must be short; anything lengthy should be handed
+ * off to an executor. The thread exits when no timeouts are pending and is restarted on demand.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdAsyncTaskMonitor}
+ * and is meant for its exclusive use.
+ *
+ * @since 9.1
+ */
+class HashedTimerWheel {
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    // Guarded by this
+    private Thread worker;
+
+    // Only accessed by the worker thread
+    private long startNanos;
+    private long tick;
+
+    /**
+     * @param tickDuration
+     *            precision of the timer
+     * @param ticksPerWheel
+     *            number of buckets; rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    HashedTimerWheel(final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        final int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.wheel = new Queue[Math.max(size, 1)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = wheel.length - 1;
+    }
+
+    /**
+     * Schedules an action to run once the delay has elapsed, rounded up to the next tick.
+     *
+     * @return a handle with which the timeout can be cancelled
+     */
+    Timeout schedule(final Runnable action, final long delay, final TimeUnit unit) {
+        final Timeout timeout = new Timeout(action, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pendingTimeouts.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        ensureStarted();
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts that have been scheduled and neither fired nor been cancelled
+     */
+    int getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    private synchronized void ensureStarted() {
+        if (worker == null) {
+            worker = new Thread(this::run, "vcd-task-timer");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        startNanos = System.nanoTime();
+        tick = 0;
+        while (true) {
+            if (!awaitNextTick()) {
+                return;
+            }
+            transferScheduledTimeouts();
+            expireTimeouts(wheel[(int) (tick & mask)]);
+            tick++;
+
+            synchronized (this) {
+                if (pendingTimeouts.get() == 0 && scheduledTimeouts.isEmpty()) {
+                    for (final Queue<Timeout> bucket : wheel) {
+                        bucket.clear();
+                    }
+                    worker = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean awaitNextTick() {
+        final long deadline = startNanos + (tick + 1) * tickNanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    worker = null;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void transferScheduledTimeouts() {
+        Timeout timeout;
+        while ((timeout = scheduledTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            final long deadlineTick =
+                    Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(final Queue<Timeout> bucket) {
+        final Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            final Timeout timeout = timeouts.next();
+            if (timeout.cancelled) {
+                timeouts.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                timeouts.remove();
+                if (timeout.complete()) {
+                    timeout.action.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle to a scheduled action.
+     */
+    final class Timeout {
+        private final Runnable action;
+        private final long deadlineNanos;
+        private volatile boolean cancelled;
+        private boolean done;
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+
+        private Timeout(final Runnable action, final long deadlineNanos) {
+            this.action = action;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Prevents the action from running if it has not already.
+         */
+        void cancel() {
+            if (complete()) {
+                cancelled = true;
+            }
+        }
+
+        private synchronized boolean complete() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            pendingTimeouts.decrementAndGet();
+            return true;
+        }
+    }
+}
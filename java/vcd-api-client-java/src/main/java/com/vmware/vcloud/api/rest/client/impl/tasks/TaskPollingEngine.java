@@ -0,0 +1,490 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.impl.tasks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.vmware.vcloud.api.rest.client.QueryResultFormat;
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+import com.vmware.vcloud.api.rest.client.TaskStatusLookup;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.client.VcdErrorException;
+import com.vmware.vcloud.api.rest.client.constants.RestConstants.HttpStatusCodes;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultAdminTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.SessionType;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.cxf.jaxrs.ext.search.client.SearchConditionBuilder;
+
+/**
+ * Polls VCD for completed tasks on behalf of all {@link VcdBulkTaskMonitor}s of one principal at
+ * one VCD endpoint.
+ * <P>
+ * Every {@value #POLLING_INTERVAL_SECS} seconds the engine queries for completed tasks and hands
+ * them to the trackers tracking them. Depending on which is expected to be cheaper, it either
+ * issues a single {@code task} query for tasks that completed at or after the earliest end time
+ * any attached tracker still needs, or queries for the outstanding tracked tasks by id. Completed tasks are also remembered for
+ * as long as any attached tracker's tasks may have started before they completed, so that a task
+ * added to a tracker after the poll that saw it complete is still resolved.
+ * <P>
+ * Engines are created when the first tracker for a principal is attached and stop polling as soon
+ * as their last tracker is detached. All engines share a small pool of daemon threads.
+ * <P>
+ * An engine polls with the session of the client of the tracker that created it. Trackers of the
+ * same principal may be created from other sessions, which outlive it; if the engine's session is
+ * rejected, the engine switches to the session of one of its attached trackers' clients.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdBulkTaskMonitor}
+ * and is meant for its exclusive use.
+ *
+ * @since 9.1
+ */
+class TaskPollingEngine {
+    private static final long POLLING_INTERVAL_SECS = 15L;
+
+    // Longest id filter to put in a query URL, leaving room for the rest of the URL within the
+    // limits commonly enforced by servers and proxies
+    private static final int MAX_ID_FILTER_LENGTH = 4000;
+    private static final int MAX_ID_QUERIES = 16;
+    private static final int REQUEST_COST_IN_RECORDS = 32;
+    private static final int VOLUME_ESTIMATE_POLLS = 4;
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+    private static final Map<EngineKey, TaskPollingEngine> ENGINES = new ConcurrentHashMap<>();
+
+    private final EngineKey key;
+    // Only replaced by poll(), which never overlaps itself
+    private volatile VcdClient vcdClient;
+    private final boolean systemOrg;
+    private final Set<VcdBulkTaskMonitor> trackers = new HashSet<>();
+    private final Map<String, List<VcdBulkTaskMonitor>> subscribers = new HashMap<>();
+    private final Map<String, CompletedTask> completedTasks = new HashMap<>();
+    private final ScheduledFuture<?> pollingFuture;
+
+    // Only accessed by poll(), which never overlaps itself
+    private long completedTaskVolume = -1;
+    private int pollsSinceVolumeEstimate;
+
+    private TaskPollingEngine(final EngineKey key, final VcdClient vcdClient, final boolean systemOrg) {
+        this.key = key;
+        this.vcdClient = vcdClient;
+        this.systemOrg = systemOrg;
+        pollingFuture = SCHEDULER.scheduleWithFixedDelay(
+                () -> poll(), POLLING_INTERVAL_SECS, POLLING_INTERVAL_SECS, TimeUnit.SECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(2, runnable -> {
+            final Thread thread = new Thread(runnable, "vcd-task-polling");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setKeepAliveTime(1, TimeUnit.MINUTES);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Attaches a tracker to the engine for the principal logged in to the specified client,
+     * starting that engine if necessary.
+     *
+     * @return the engine the tracker was attached to
+     */
+    static TaskPollingEngine attach(final VcdClient vcdClient, final VcdBulkTaskMonitor tracker) {
+        final SessionType session = vcdClient.getSession();
+        final EngineKey key = new EngineKey(vcdClient.getEndpoint(), session.getUser(), session.getOrg());
+        return ENGINES.compute(key, (k, engine) -> {
+            final TaskPollingEngine attachedEngine = (engine != null) ? engine
+                    : new TaskPollingEngine(k, vcdClient.duplicate(false),
+                            StringUtils.equalsIgnoreCase(session.getOrg(), "system"));
+            attachedEngine.addTracker(tracker);
+            return attachedEngine;
+        });
+    }
+
+    /**
+     * Detaches a tracker from its engine, stopping the engine if no trackers remain.
+     */
+    static void detach(final TaskPollingEngine engine, final VcdBulkTaskMonitor tracker) {
+        ENGINES.computeIfPresent(engine.key, (k, current) -> {
+            if (current != engine) {
+                return current;
+            }
+            return engine.removeTracker(tracker) ? null : engine;
+        });
+    }
+
+    private synchronized void addTracker(final VcdBulkTaskMonitor tracker) {
+        trackers.add(tracker);
+    }
+
+    /**
+     * @return {@code true} if the engine has been stopped because no trackers remain
+     */
+    private synchronized boolean removeTracker(final VcdBulkTaskMonitor tracker) {
+        if (!trackers.remove(tracker)) {
+            return trackers.isEmpty();
+        }
+        for (final String taskId : tracker.getTaskIds()) {
+            final List<VcdBulkTaskMonitor> taskSubscribers = subscribers.get(taskId);
+            if (taskSubscribers != null && taskSubscribers.remove(tracker) && taskSubscribers.isEmpty()) {
+                subscribers.remove(taskId);
+            }
+        }
+        if (trackers.isEmpty()) {
+            pollingFuture.cancel(false);
+            subscribers.clear();
+            completedTasks.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Subscribes a tracker to the completion of the specified tasks, immediately notifying it of
+     * any that are already known to have completed.
+     */
+    synchronized void register(final VcdBulkTaskMonitor tracker, final Collection<String> taskIds) {
+        for (final String taskId : taskIds) {
+            final CompletedTask completedTask = completedTasks.get(taskId);
+            if (completedTask != null) {
+                tracker.taskCompleted(taskId, completedTask.status, completedTask.operationName,
+                        completedTask.durationMillis);
+            } else {
+                subscribers.computeIfAbsent(taskId, id -> new ArrayList<>(1)).add(tracker);
+            }
+        }
+    }
+
+    private void poll() {
+        final List<VcdBulkTaskMonitor> currentTrackers;
+        synchronized (this) {
+            currentTrackers = new ArrayList<>(trackers);
+        }
+
+        final Date queryEndTime = currentTrackers.stream()
+                .map(VcdBulkTaskMonitor::getQueryEndTime)
+                .filter(Objects::nonNull)
+                .min(Date::compareTo)
+                .orElse(null);
+
+        final List<String> outstandingTaskIds;
+        synchronized (this) {
+            outstandingTaskIds = new ArrayList<>(subscribers.keySet());
+        }
+
+        if (queryEndTime != null && !outstandingTaskIds.isEmpty()) {
+            RuntimeException failure;
+            try {
+                poll(currentTrackers, queryEndTime, outstandingTaskIds);
+                failure = null;
+            } catch (RuntimeException e) {
+                failure = isUnauthorized(e)
+                        ? pollWithTrackerSession(currentTrackers, queryEndTime, outstandingTaskIds, e)
+                        : e;
+            }
+            if (failure != null) {
+                final RuntimeException e = failure;
+                currentTrackers.forEach(tracker -> tracker.trackingFailed(e));
+                return;
+            }
+            pruneCompletedTasks(currentTrackers);
+        }
+
+        currentTrackers.forEach(VcdBulkTaskMonitor::checkCompletion);
+    }
+
+    private void poll(final List<VcdBulkTaskMonitor> currentTrackers, final Date queryEndTime,
+            final List<String> outstandingTaskIds) {
+        final List<String> idFilters = generateIdQueryStrings(outstandingTaskIds);
+        if (preferIdQueries(idFilters, outstandingTaskIds.size(), queryEndTime)) {
+            pollByIds(idFilters);
+        } else {
+            final Date latestTimeRecorded = pollByEndTime(queryEndTime);
+            for (final VcdBulkTaskMonitor tracker : currentTrackers) {
+                tracker.updateEndTime(latestTimeRecorded);
+            }
+        }
+    }
+
+    /**
+     * Retries a poll whose session was rejected with the sessions of the attached trackers'
+     * clients in turn, keeping the first that works for future polls.
+     *
+     * @return {@code null} if the poll succeeded with one of the sessions, otherwise the failure
+     *         of the last attempt
+     */
+    private RuntimeException pollWithTrackerSession(final List<VcdBulkTaskMonitor> currentTrackers,
+            final Date queryEndTime, final List<String> outstandingTaskIds, final RuntimeException rejection) {
+        RuntimeException failure = rejection;
+        final Set<VcdClient> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final VcdBulkTaskMonitor tracker : currentTrackers) {
+            if (!candidates.add(tracker.getVcdClient())) {
+                continue;
+            }
+            try {
+                vcdClient = tracker.getVcdClient().duplicate(false);
+                poll(currentTrackers, queryEndTime, outstandingTaskIds);
+                return null;
+            } catch (RuntimeException e) {
+                failure = e;
+                if (!isUnauthorized(e)) {
+                    break;
+                }
+            }
+        }
+        return failure;
+    }
+
+    private static boolean isUnauthorized(final RuntimeException e) {
+        return e instanceof VcdErrorException
+                && ((VcdErrorException) e).getHttpStatusCode() == HttpStatusCodes.SC_UNAUTHORIZED;
+    }
+
+    /**
+     * Queries for all tasks that completed at or after the specified time.
+     *
+     * @return end time of the latest task returned
+     */
+    private Date pollByEndTime(final Date queryEndTime) {
+        Date latestTimeRecorded = queryEndTime;
+        long records = 0;
+        // Since results are sorted by 'endDate' ascending, the last record is the task
+        // that ended the latest among the tasks retrieved.
+        final Iterator<? extends QueryResultRecordType> tasks =
+                createTaskQuery().setFilter(generateQueryString(queryEndTime)).stream().iterator();
+        while (tasks.hasNext()) {
+            latestTimeRecorded = taskCompleted(tasks.next()).endDate;
+            records++;
+        }
+        completedTaskVolume = records;
+        pollsSinceVolumeEstimate = 0;
+        return latestTimeRecorded;
+    }
+
+    /**
+     * Queries for the completed tasks among the specified ones.
+     */
+    private void pollByIds(final List<String> idFilters) {
+        for (final String filter : idFilters) {
+            createTaskQuery().setFilter(filter).stream().forEach(this::taskCompleted);
+        }
+        pollsSinceVolumeEstimate++;
+    }
+
+    /**
+     * Decides whether querying for outstanding tasks by id is cheaper than querying for all tasks
+     * completed since the earliest end time still needed.
+     * <P>
+     * The cost of a poll is estimated as the number of records it returns plus
+     * {@value #REQUEST_COST_IN_RECORDS} records' worth per request. A query by end time returns
+     * every task in the system that completed in the period, which is known from the previous such
+     * query or, while querying by id, estimated every {@value #VOLUME_ESTIMATE_POLLS} polls with a
+     * count query. Queries by id return at most the outstanding tasks, but need one request per
+     * chunk of ids.
+     */
+    private boolean preferIdQueries(final List<String> idFilters, final int outstandingTasks,
+            final Date queryEndTime) {
+        if (idFilters.size() > MAX_ID_QUERIES) {
+            return false;
+        }
+        if (completedTaskVolume < 0 || pollsSinceVolumeEstimate >= VOLUME_ESTIMATE_POLLS) {
+            completedTaskVolume = createTaskQuery().setFilter(generateQueryString(queryEndTime)).count();
+            pollsSinceVolumeEstimate = 0;
+        }
+        final long endTimePages = Math.max(1, (completedTaskVolume + Query.DEFAULT_MAX_PAGE_SIZE - 1)
+                / Query.DEFAULT_MAX_PAGE_SIZE);
+        final long endTimeCost = endTimePages * REQUEST_COST_IN_RECORDS + completedTaskVolume;
+        final long idCost = idFilters.size() * REQUEST_COST_IN_RECORDS + outstandingTasks;
+        return idCost < endTimeCost;
+    }
+
+    private synchronized CompletedTask taskCompleted(final QueryResultRecordType task) {
+        final CompletedTask completedTask = new CompletedTask(task);
+        final CompletedTask known = completedTasks.putIfAbsent(task.getId(), completedTask);
+        if (known != null) {
+            // Already known; tasks ending at the query's threshold time are returned again
+            return known;
+        }
+        final List<VcdBulkTaskMonitor> taskSubscribers = subscribers.remove(task.getId());
+        if (taskSubscribers != null) {
+            taskSubscribers.forEach(tracker -> tracker.taskCompleted(task.getId(), completedTask.status,
+                    completedTask.operationName, completedTask.durationMillis));
+        }
+        return completedTask;
+    }
+
+    /**
+     * Forgets completed tasks that ended before any attached tracker's earliest task started, as
+     * none of those trackers can be tracking them.
+     */
+    private synchronized void pruneCompletedTasks(final List<VcdBulkTaskMonitor> currentTrackers) {
+        final Date earliestStartTime = currentTrackers.stream()
+                .map(VcdBulkTaskMonitor::getEarliestStartTime)
+                .filter(Objects::nonNull)
+                .min(Date::compareTo)
+                .orElse(null);
+        if (earliestStartTime != null) {
+            completedTasks.values().removeIf(task -> task.endDate.before(earliestStartTime));
+        }
+    }
+
+    /**
+     * Generates filters for the completed tasks among the specified ones, with as many ids in each
+     * as fit in {@value #MAX_ID_FILTER_LENGTH} URL encoded characters.
+     */
+    private List<String> generateIdQueryStrings(final List<String> taskIds) {
+        final List<String> filters = new ArrayList<>();
+        int start = 0;
+        int length = 0;
+        for (int i = 0; i < taskIds.size(); i++) {
+            // 'id==' or ',id==' plus the encoded id, of which only ':' needs encoding in a URN
+            final int idLength = 5 + taskIds.get(i).length() + 2 * StringUtils.countMatches(taskIds.get(i), ':');
+            if (i > start && length + idLength > MAX_ID_FILTER_LENGTH) {
+                filters.add(generateIdQueryString(taskIds.subList(start, i)));
+                start = i;
+                length = 0;
+            }
+            length += idLength;
+        }
+        if (start < taskIds.size()) {
+            filters.add(generateIdQueryString(taskIds.subList(start, taskIds.size())));
+        }
+        return filters;
+    }
+
+    private String generateIdQueryString(final List<String> taskIds) {
+        final SearchConditionBuilder taskFilter = Query.getFilterBuilder();
+        return taskFilter.is("id").equalTo(taskIds.get(0), taskIds.subList(1, taskIds.size()).toArray(new String[0]))
+                .wrap()
+                .and("status").equalTo(TaskStatus.SUCCESS.getLabel(),
+                                       TaskStatus.ERROR.getLabel(),
+                                       TaskStatus.ABORTED.getLabel(),
+                                       TaskStatus.CANCELED.getLabel()).wrap()
+                .query();
+    }
+
+    private Query<? extends QueryResultRecordType> createTaskQuery() {
+        final Query<? extends QueryResultRecordType> taskQuery = TaskStatusLookup.createTaskQuery(vcdClient, systemOrg);
+
+        return taskQuery.setQueryResultFormat(QueryResultFormat.ID_RECORDS)
+                .setPageSize(Query.DEFAULT_MAX_PAGE_SIZE)
+                .setSortAsc("endDate");
+    }
+
+    private String generateQueryString(final Date lastKnownEndTime) {
+        final SearchConditionBuilder taskFilter = Query.getFilterBuilder();
+        return taskFilter.is("endDate").notBefore(lastKnownEndTime)
+                .and("status").equalTo(TaskStatus.SUCCESS.getLabel(),
+                                       TaskStatus.ERROR.getLabel(),
+                                       TaskStatus.ABORTED.getLabel(),
+                                       TaskStatus.CANCELED.getLabel()).wrap()
+                .query();
+    }
+
+    static XMLGregorianCalendar extractEndDate(final QueryResultRecordType task) {
+        if (task instanceof QueryResultAdminTaskRecordType) {
+            return ((QueryResultAdminTaskRecordType)task).getEndDate();
+        } else if (task instanceof QueryResultTaskRecordType) {
+            return ((QueryResultTaskRecordType)task).getEndDate();
+        } else {
+            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+        }
+    }
+
+    static XMLGregorianCalendar extractStartDate(final QueryResultRecordType task) {
+        if (task instanceof QueryResultAdminTaskRecordType) {
+            return ((QueryResultAdminTaskRecordType)task).getStartDate();
+        } else if (task instanceof QueryResultTaskRecordType) {
+            return ((QueryResultTaskRecordType)task).getStartDate();
+        } else {
+            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+        }
+    }
+
+    static String extractOperationName(final QueryResultRecordType task) {
+        if (task instanceof QueryResultAdminTaskRecordType) {
+            return ((QueryResultAdminTaskRecordType)task).getName();
+        } else if (task instanceof QueryResultTaskRecordType) {
+            return ((QueryResultTaskRecordType)task).getName();
+        } else {
+            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+        }
+    }
+
+    private static final class CompletedTask {
+        private final TaskStatus status;
+        private final Date endDate;
+        private final String operationName;
+        private final long durationMillis;
+
+        CompletedTask(final QueryResultRecordType task) {
+            status = TaskStatus.from(TaskStatusLookup.extractStatus(task));
+            endDate = extractEndDate(task).toGregorianCalendar().getTime();
+            operationName = extractOperationName(task);
+            final XMLGregorianCalendar startDate = extractStartDate(task);
+            durationMillis = (startDate == null) ? -1
+                    : endDate.getTime() - startDate.toGregorianCalendar().getTimeInMillis();
+        }
+    }
+
+    /**
+     * Identifies the VCD endpoint and principal whose tasks an engine polls.
+     */
+    private static final class EngineKey {
+        private final URI endpoint;
+        private final String user;
+        private final String org;
+
+        EngineKey(final URI endpoint, final String user, final String org) {
+            this.endpoint = endpoint;
+            this.user = user;
+            this.org = org;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EngineKey)) {
+                return false;
+            }
+            final EngineKey other = (EngineKey) obj;
+            return Objects.equals(endpoint, other.endpoint) && Objects.equals(user, other.user)
+                    && Objects.equals(org, other.org);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, user, org);
+        }
+    }
+}
@@ -15,7 +15,7 @@ import java.util.concurrent.atomic.AtomicReference;
  * querying for completed tasks.
  * <P>
  * This class's implementation is closely tied to the implementation of {@link VcdBulkTaskMonitor}
- * and is meant for its exclusive use.
+ * and {@link TaskPollingEngine} and is meant for their exclusive use.
  *
  * @since 8.10
  */
@@ -57,16 +57,38 @@ class TaskTimingInfo {
         }
     }
 
+    /**
+     * @return earliest known start time of all tasks, or {@code null} if none are known
+     */
+    Date getStartTime() {
+        return earliestKnownStartTime.get();
+    }
+
     /**
      * Updates the latest known end time to be the passed value, unless the latest known end time
-     * has been erased by {@link #updateStartTime(Date)}
+     * has been erased by {@link #updateStartTime(Date)} or is already later than the passed value.
      *
      * @param endTime
      *            latest known end time that was encountered
+     * @return the resulting end time
+     */
+    Date updateEndTime(Date endTime) {
+        return earliestKnownEndTime.accumulateAndGet(endTime,
+                (currentEndTime, newEndTime) -> currentEndTime == null || newEndTime.before(currentEndTime)
+                        ? currentEndTime : newEndTime);
+    }
+
+    /**
+     * Restores start and end times previously recorded, such as in a {@link TaskTrackingJournal}.
+     *
+     * @param startTime
+     *            earliest known start time
+     * @param endTime
+     *            end time last returned by {@link #getEndTime()}, or {@code null}
      */
-    void updateEndTime(Date endTime) {
-        earliestKnownEndTime.accumulateAndGet(endTime,
-                (currentEndTime, newEndTime) -> currentEndTime == null ? null : newEndTime);
+    void restore(Date startTime, Date endTime) {
+        earliestKnownStartTime.set(startTime);
+        earliestKnownEndTime.set(endTime);
     }
 
     /**
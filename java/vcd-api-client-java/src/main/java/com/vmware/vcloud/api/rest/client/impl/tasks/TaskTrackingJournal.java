@@ -0,0 +1,231 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.impl.tasks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+
+/**
+ * An append-only, memory-mapped journal of the state of a {@link VcdBulkTaskMonitor}: the tasks it
+ * tracks with their start times, the final statuses learned so far, the end time watermark of its
+ * {@link TaskTimingInfo} and whether all tasks have been added.
+ * <P>
+ * Each record is a type byte followed by its fields. A record's type byte is written only after the
+ * rest of the record, so a record torn by a crash reads as the (zero filled) end of the journal.
+ * The file is mapped in growing regions and flushed to disk after each batch of records.
+ * <P>
+ * This class's implementation is closely tied to the implementation of {@link VcdBulkTaskMonitor}
+ * and is meant for its exclusive use.
+ *
+ * @since 9.1
+ */
+class TaskTrackingJournal implements AutoCloseable {
+    private static final int MAGIC = 0x564a524e; // "VJRN"
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private static final byte END = 0;
+    private static final byte TRACK = 1;
+    private static final byte COMPLETE = 2;
+    private static final byte WATERMARK = 3;
+    private static final byte ALL_ADDED = 4;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private final State state;
+
+    /**
+     * Opens the journal at the specified path, creating it if it does not exist, and reads the
+     * state it records.
+     */
+    TaskTrackingJournal(final Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open task tracking journal " + path, e);
+        }
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+        } else if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Not a task tracking journal: " + path);
+        }
+        buffer.position(HEADER_SIZE);
+        state = replay();
+    }
+
+    /**
+     * @return the state recorded in the journal when it was opened
+     */
+    State getState() {
+        return state;
+    }
+
+    synchronized void recordTrack(final String taskId, final Date startTime) {
+        final byte[] id = taskId.getBytes(StandardCharsets.UTF_8);
+        final int recordStart = reserve(1 + Long.BYTES + Short.BYTES + id.length);
+        buffer.putLong(startTime == null ? -1 : startTime.getTime());
+        putBytes(id);
+        buffer.put(recordStart, TRACK);
+    }
+
+    synchronized void recordCompletion(final String taskId, final TaskStatus status) {
+        final byte[] id = taskId.getBytes(StandardCharsets.UTF_8);
+        final byte[] label = status.getLabel().getBytes(StandardCharsets.UTF_8);
+        final int recordStart = reserve(1 + Short.BYTES + id.length + Short.BYTES + label.length);
+        putBytes(id);
+        putBytes(label);
+        buffer.put(recordStart, COMPLETE);
+    }
+
+    synchronized void recordWatermark(final Date endTime) {
+        final int recordStart = reserve(1 + Long.BYTES);
+        buffer.putLong(endTime.getTime());
+        buffer.put(recordStart, WATERMARK);
+    }
+
+    synchronized void recordAllTasksAdded() {
+        final int recordStart = reserve(1);
+        buffer.put(recordStart, ALL_ADDED);
+    }
+
+    /**
+     * Flushes records written so far to disk.
+     */
+    synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reserves space for a record, remapping a larger region of the file if necessary, and
+     * positions the buffer after the record's type byte.
+     *
+     * @return offset of the record's type byte
+     */
+    private int reserve(final int recordSize) {
+        // Keep a zero byte after the record to mark the end of the journal
+        if (buffer.remaining() < recordSize + 1) {
+            final int position = buffer.position();
+            final long size = Math.max((long) buffer.capacity() * 2, position + recordSize + 1);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Task tracking journal is full");
+            }
+            try {
+                buffer.force();
+                buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to grow task tracking journal", e);
+            }
+            buffer.position(position);
+        }
+        final int recordStart = buffer.position();
+        buffer.put(END);
+        return recordStart;
+    }
+
+    private void putBytes(final byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private String getString() {
+        final byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private State replay() {
+        final State replayed = new State();
+        try {
+            while (buffer.hasRemaining()) {
+                final int recordStart = buffer.position();
+                final byte type = buffer.get();
+                switch (type) {
+                case TRACK:
+                    final long startTime = buffer.getLong();
+                    replayed.startTimes.put(getString(), startTime < 0 ? null : new Date(startTime));
+                    break;
+                case COMPLETE:
+                    final String taskId = getString();
+                    replayed.completionStatus.put(taskId, TaskStatus.from(getString()));
+                    break;
+                case WATERMARK:
+                    replayed.endTime = new Date(buffer.getLong());
+                    break;
+                case ALL_ADDED:
+                    replayed.allTasksAdded = true;
+                    break;
+                default:
+                    buffer.position(recordStart);
+                    return replayed;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupt task tracking journal", e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Tracker state recorded in a journal.
+     */
+    static final class State {
+        private final Map<String, Date> startTimes = new LinkedHashMap<>();
+        private final Map<String, TaskStatus> completionStatus = new LinkedHashMap<>();
+        private Date endTime;
+        private boolean allTasksAdded;
+
+        /**
+         * @return start times of tracked tasks, keyed by task id
+         */
+        Map<String, Date> getStartTimes() {
+            return Collections.unmodifiableMap(startTimes);
+        }
+
+        /**
+         * @return final statuses of completed tasks, keyed by task id
+         */
+        Map<String, TaskStatus> getCompletionStatus() {
+            return Collections.unmodifiableMap(completionStatus);
+        }
+
+        /**
+         * @return the last recorded end time watermark, or {@code null}
+         */
+        Date getEndTime() {
+            return endTime;
+        }
+
+        boolean isAllTasksAdded() {
+            return allTasksAdded;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.impl.tasks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.vmware.vcloud.api.rest.client.AsyncTaskMonitor;
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+import com.vmware.vcloud.api.rest.client.TaskStatusLookup;
+import com.vmware.vcloud.api.rest.client.TaskStatusLookup.TargetStatus;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.client.metrics.TaskMetricsRecorder;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+
+/**
+ * An implementation of {@link AsyncTaskMonitor} that can wait for thousands of tasks with a
+ * handful of threads.
+ * <P>
+ * The next poll of every pending task is scheduled on a single {@link HashedTimerWheel}, starting
+ * {@value #INITIAL_POLL_MILLIS} ms after the wait begins and backing off exponentially up to
+ * {@value #MAX_POLL_MILLIS} ms between polls. Due polls are executed by at most
+ * {@value #MAX_CONCURRENT_POLLS} threads. Tasks due at the same time are polled together with a
+ * single {@link TaskStatusLookup} query filtered by the ids of up to
+ * {@value TaskStatusLookup#MAX_TASKS_PER_QUERY} tasks; only tasks that the query reports to have
+ * reached a final status are then fetched in full. Tasks the query does not return, or which are
+ * polled alone, are fetched directly.
+ * <P>
+ * A task that ends in a status that is neither expected nor the failure status fails its future
+ * immediately rather than at the timeout. The duration and outcome of every task seen to end are
+ * reported to the monitor's {@link TaskMetricsRecorder}.
+ *
+ * @since 9.1
+ */
+class VcdAsyncTaskMonitor implements AsyncTaskMonitor {
+    private static final long INITIAL_POLL_MILLIS = 500L;
+    private static final long MAX_POLL_MILLIS = 10_000L;
+    private static final int MAX_CONCURRENT_POLLS = 4;
+    private static final int MAX_TASKS_PER_QUERY = TaskStatusLookup.MAX_TASKS_PER_QUERY;
+
+    private final VcdClient vcdClient;
+    private final TaskStatusLookup statusLookup;
+    private final HashedTimerWheel timer = new HashedTimerWheel(100, TimeUnit.MILLISECONDS, 512);
+    private final ExecutorService pollExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_POLLS, runnable -> {
+        final Thread thread = new Thread(runnable, "vcd-task-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Queue<PendingTask> dueTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activePollers = new AtomicInteger();
+    private final Supplier<TaskMetricsRecorder> taskMetricsRecorder;
+
+    VcdAsyncTaskMonitor(final VcdClient vcdClient, final Supplier<TaskMetricsRecorder> taskMetricsRecorder) {
+        this.vcdClient = vcdClient;
+        this.statusLookup = new TaskStatusLookup(vcdClient);
+        this.taskMetricsRecorder = taskMetricsRecorder;
+    }
+
+    @Override
+    public CompletableFuture<TaskType> waitForSuccess(final TaskType task, final long timeoutInMillis) {
+        return waitForStatus(task, timeoutInMillis, TaskStatus.ERROR, TaskStatus.SUCCESS);
+    }
+
+    @Override
+    public CompletableFuture<TaskType> waitForStatus(final TaskType task, final long timeoutInMillis,
+            final TaskStatus failOnStatus, final TaskStatus... expectedTargetStatus) {
+        final PendingTask pendingTask =
+                new PendingTask(task, timeoutInMillis, new TargetStatus(failOnStatus, expectedTargetStatus));
+        pendingTask.future.whenComplete((result, ex) -> pendingTask.cancelPoll());
+        pendingTask.schedulePoll(INITIAL_POLL_MILLIS);
+        return pendingTask.future;
+    }
+
+    /**
+     * Called on the timer thread when a task's poll is due; starts another poller if the limit has
+     * not been reached.
+     */
+    private void pollDue(final PendingTask pendingTask) {
+        dueTasks.add(pendingTask);
+        int pollers;
+        while ((pollers = activePollers.get()) < MAX_CONCURRENT_POLLS) {
+            if (activePollers.compareAndSet(pollers, pollers + 1)) {
+                pollExecutor.execute(this::pollDueTasks);
+                return;
+            }
+        }
+    }
+
+    private void pollDueTasks() {
+        while (true) {
+            final List<PendingTask> batch = new ArrayList<>(MAX_TASKS_PER_QUERY);
+            PendingTask pendingTask;
+            while (batch.size() < MAX_TASKS_PER_QUERY && (pendingTask = dueTasks.poll()) != null) {
+                if (!pendingTask.future.isDone()) {
+                    batch.add(pendingTask);
+                }
+            }
+            if (batch.isEmpty()) {
+                activePollers.decrementAndGet();
+                // Tasks may have become due after the queue was found empty but before the count
+                // was decremented, in which case no new poller was started for them.
+                if (dueTasks.isEmpty() || !reacquirePoller()) {
+                    return;
+                }
+                continue;
+            }
+            poll(batch);
+        }
+    }
+
+    private boolean reacquirePoller() {
+        int pollers;
+        while ((pollers = activePollers.get()) < MAX_CONCURRENT_POLLS) {
+            if (activePollers.compareAndSet(pollers, pollers + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void poll(final List<PendingTask> batch) {
+        if (batch.size() == 1) {
+            fetchAndResolve(batch.get(0));
+            return;
+        }
+
+        final Map<String, String> statuses;
+        try {
+            statuses = statusLookup.queryStatuses(
+                    batch.stream().map(pendingTask -> pendingTask.task.getId()).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            // Fall back on fetching each task
+            batch.forEach(this::fetchAndResolve);
+            return;
+        }
+
+        for (final PendingTask pendingTask : batch) {
+            final String status = statuses.get(pendingTask.task.getId());
+            if (status == null || pendingTask.targetStatus.isFinal(status)) {
+                fetchAndResolve(pendingTask);
+            } else {
+                pendingTask.reschedule();
+            }
+        }
+    }
+
+    private void fetchAndResolve(final PendingTask pendingTask) {
+        final TaskType task;
+        try {
+            task = vcdClient.getResource(URI.create(pendingTask.task.getHref()), TaskType.class);
+        } catch (RuntimeException e) {
+            pendingTask.future.completeExceptionally(e);
+            return;
+        }
+        pendingTask.resolve(task);
+    }
+
+    private void recordCompletion(final TaskType task) {
+        if (task.getStartTime() == null || task.getEndTime() == null) {
+            return;
+        }
+        final TaskStatus status;
+        try {
+            status = TaskStatus.from(task.getStatus().toLowerCase());
+        } catch (IllegalArgumentException e) {
+            // Not a status known to this client; nothing to record
+            return;
+        }
+        taskMetricsRecorder.get().taskCompleted(task.getOperationName(), status,
+                task.getEndTime().toGregorianCalendar().getTimeInMillis()
+                        - task.getStartTime().toGregorianCalendar().getTimeInMillis(), -1);
+    }
+
+    /**
+     * A task being waited for.
+     */
+    private final class PendingTask {
+        private final TaskType task;
+        private final long startNanos = System.nanoTime();
+        private final long timeoutInMillis;
+        private final TargetStatus targetStatus;
+        private final CompletableFuture<TaskType> future = new CompletableFuture<>();
+
+        private long pollInterval = INITIAL_POLL_MILLIS;
+        private volatile HashedTimerWheel.Timeout nextPoll;
+
+        PendingTask(final TaskType task, final long timeoutInMillis, final TargetStatus targetStatus) {
+            this.task = task;
+            this.timeoutInMillis = timeoutInMillis;
+            this.targetStatus = targetStatus;
+        }
+
+        void resolve(final TaskType current) {
+            if (targetStatus.resolve(current, future)) {
+                recordCompletion(current);
+            } else {
+                reschedule();
+            }
+        }
+
+        void reschedule() {
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (elapsed >= timeoutInMillis) {
+                future.completeExceptionally(new TimeoutException("Timed out after "
+                        + TimeUnit.MILLISECONDS.toSeconds(elapsed) + " seconds waiting for task: " + task.getHref()));
+                return;
+            }
+            pollInterval = Math.min(MAX_POLL_MILLIS, pollInterval * 2);
+            schedulePoll(Math.min(pollInterval, timeoutInMillis - elapsed));
+        }
+
+        void schedulePoll(final long delayMillis) {
+            nextPoll = timer.schedule(() -> pollDue(this), delayMillis, TimeUnit.MILLISECONDS);
+            if (future.isDone()) {
+                cancelPoll();
+            }
+        }
+
+        void cancelPoll() {
+            final HashedTimerWheel.Timeout timeout = nextPoll;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
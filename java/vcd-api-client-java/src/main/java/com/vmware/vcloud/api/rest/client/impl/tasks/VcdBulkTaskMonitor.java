@@ -6,60 +6,71 @@
 
 package com.vmware.vcloud.api.rest.client.impl.tasks;
 
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.xml.datatype.XMLGregorianCalendar;
-
-import com.vmware.vcloud.api.rest.client.QueryResultFormat;
 import com.vmware.vcloud.api.rest.client.TaskStatus;
 import com.vmware.vcloud.api.rest.client.VcdClient;
-import com.vmware.vcloud.api.rest.client.VcdClient.Query;
 import com.vmware.vcloud.api.rest.client.VcdTaskMonitor.MultiTaskTracker;
-import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultAdminTaskRecordType;
-import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
-import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultTaskRecordType;
+import com.vmware.vcloud.api.rest.client.metrics.TaskMetricsRecorder;
 import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.cxf.jaxrs.ext.search.client.SearchConditionBuilder;
-
 /**
  * An implementation of {@link MultiTaskTracker} that tracks tasks that complete AFTER the instant
  * of earliest known start time of all tasks being tracked by this instance.
  * <P>
- * Task tracking is achieved by querying VCD via the {@code task} query every
- * {@value #POLLING_INTERVAL_SECS} seconds for the operations of various tasks being tracked and
- * have completed. As completed task id's trickle in, the time threshold for future queries changes
- * from the earliest known start time of all tasks to the latest known time of completed tasks thus
- * allowing to further optimize the queries and processing of results by de-duplication.
+ * Task tracking is achieved by a {@link TaskPollingEngine} shared by all trackers of the same
+ * principal at the same VCD endpoint, which periodically queries VCD via the {@code task} query for
+ * tasks that have completed and hands each tracker the completed tasks it is tracking. As completed
+ * task id's trickle in, the time threshold this tracker needs future queries to cover changes from
+ * the earliest known start time of its tasks to the latest known time of completed tasks.
+ * <P>
+ * The duration and outcome of each task seen to complete are reported to the monitor's
+ * {@link TaskMetricsRecorder}. Queue time is not visible to the {@code task} query and is reported
+ * as unknown.
+ * <P>
+ * Completions are recorded on the polling engine's thread, but reported to the metrics recorder
+ * and completion listeners, in order, on a separate pool of daemon threads and without holding
+ * any locks, so that listeners may track further tasks and cannot delay polling. The tracking
+ * future completes after all completions have been reported.
  *
  * @since 8.10
  */
 class VcdBulkTaskMonitor implements MultiTaskTracker {
-    private static final long POLLING_INTERVAL_SECS = 15L;
+    private static final ExecutorService NOTIFIER = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "vcd-task-completion");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private final ScheduledExecutorService periodicExecutor = Executors.newSingleThreadScheduledExecutor();
-
-    private final Set<String> taskIds = new HashSet<String>();
+    private final Set<String> taskIds = ConcurrentHashMap.newKeySet();
     private final Map<String, TaskStatus> taskCompletionStatus = new ConcurrentHashMap<>();
 
-    private final Query<? extends QueryResultRecordType> taskQuery;
-
     private final TaskTimingInfo taskTimingInfo = new TaskTimingInfo();
 
     private final CompletableFuture<Map<String, TaskStatus>> trackingFuture =
@@ -67,97 +78,197 @@ class VcdBulkTaskMonitor implements MultiTaskTracker {
 
     private final AtomicBoolean allTasksAdded = new AtomicBoolean(false);
 
-    VcdBulkTaskMonitor(final VcdClient vcdClient) {
-        taskQuery = StringUtils.equalsIgnoreCase(vcdClient.getLoggedInOrg().getName(), "system")
-                ? vcdClient.getQuery("adminTask", QueryResultAdminTaskRecordType.class)
-                        : vcdClient.getQuery("task", QueryResultTaskRecordType.class);
+    private final List<BiConsumer<String, TaskStatus>> completionListeners = new CopyOnWriteArrayList<>();
+
+    // Notifications run one at a time, in the order they were queued
+    private final Queue<Runnable> notifications = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingNotifications = new AtomicInteger();
+    private final AtomicBoolean completionQueued = new AtomicBoolean(false);
 
-        taskQuery.setQueryResultFormat(QueryResultFormat.ID_RECORDS)
-            .setPageSize(Query.DEFAULT_MAX_PAGE_SIZE)
-            .setSortAsc("endDate");
+    // Guarded by completionListeners
+    private final Map<TaskStatus, Integer> completedCounts = new EnumMap<>(TaskStatus.class);
+
+    private final VcdClient vcdClient;
+    private final TaskPollingEngine pollingEngine;
+
+    private final TaskTrackingJournal journal;
+    private Date journaledEndTime;
+
+    private final Supplier<TaskMetricsRecorder> taskMetricsRecorder;
+
+    VcdBulkTaskMonitor(final VcdClient vcdClient, final Supplier<TaskMetricsRecorder> taskMetricsRecorder) {
+        this(vcdClient, taskMetricsRecorder, null);
+    }
+
+    /**
+     * @param journal
+     *            journal in which to record tracking state, or {@code null}; if it already records
+     *            state, this tracker resumes tracking from that state
+     */
+    VcdBulkTaskMonitor(final VcdClient vcdClient, final Supplier<TaskMetricsRecorder> taskMetricsRecorder,
+            final TaskTrackingJournal journal) {
+        this.vcdClient = vcdClient;
+        this.taskMetricsRecorder = taskMetricsRecorder;
+        this.journal = journal;
+        if (journal != null) {
+            restore(journal.getState());
+        }
 
-        periodicExecutor.scheduleWithFixedDelay(
-                () -> run(), POLLING_INTERVAL_SECS, POLLING_INTERVAL_SECS, TimeUnit.SECONDS);
+        pollingEngine = TaskPollingEngine.attach(vcdClient, this);
 
         trackingFuture.whenComplete(this::finishTracking);
+
+        final Set<String> outstandingTaskIds = new HashSet<>(taskIds);
+        outstandingTaskIds.removeAll(taskCompletionStatus.keySet());
+        pollingEngine.register(this, outstandingTaskIds);
+    }
+
+    private void restore(final TaskTrackingJournal.State state) {
+        taskIds.addAll(state.getStartTimes().keySet());
+        state.getCompletionStatus().forEach((taskId, status) -> {
+            if (taskIds.contains(taskId) && taskCompletionStatus.putIfAbsent(taskId, status) == null) {
+                completedCounts.merge(status, 1, Integer::sum);
+            }
+        });
+        final Date startTime = state.getStartTimes().values().stream()
+                .filter(Objects::nonNull)
+                .min(Date::compareTo)
+                .orElse(null);
+        taskTimingInfo.restore(startTime, state.getEndTime());
+        journaledEndTime = state.getEndTime();
+        allTasksAdded.set(state.isAllTasksAdded());
     }
 
     private final void finishTracking(Map<String, TaskStatus> result, Throwable ex) {
-        periodicExecutor.shutdown();
+        TaskPollingEngine.detach(pollingEngine, this);
+        if (journal != null) {
+            journal.close();
+        }
     }
 
-    private void run() {
-        final Date lastKnownEndTime = taskTimingInfo.getEndTime();
-        if (lastKnownEndTime == null) {
-            // no tasks have been added. Skip.
-            if (allTasksAdded.get()) {
-                // No tasks will be added. So finish up.
-                trackingFuture.complete(Collections.emptyMap());
-            }
+    /**
+     * Applies an update to the journal, if any, failing tracking if the journal cannot be written.
+     */
+    private void journal(final Consumer<TaskTrackingJournal> update) {
+        if (journal == null || trackingFuture.isDone()) {
             return;
         }
-        final String filter = generateQueryString(lastKnownEndTime);
-
-        final AtomicReference<Date> latestTimeRecorded = new AtomicReference<>(lastKnownEndTime);
-
         try {
-            taskQuery.setFilter(filter).stream()
-                // ignore tasks already known to be complete
-                .filter(task -> !taskCompletionStatus.containsKey(task.getId()))
-                // Update time threshold to time of last task's completion.
-                // Since results are sorted by 'endTime' ascending, last record is the
-                // task that ended the latest among the tasks retrieved in this set of results.
-                .peek(task ->
-                          latestTimeRecorded.set(extractEndDate(task).toGregorianCalendar().getTime()))
-                .collect(Collectors.toMap(
-                             QueryResultRecordType::getId,
-                             task -> TaskStatus.from(extractStatus(task)),
-                             // Safety de-dup. existingTaskStatus and newTaskStatus should be the same
-                             // as per our data model and duplicate tasks filtered out above.
-                             (existingTaskStatus, newTaskStatus) -> existingTaskStatus,
-                             () -> taskCompletionStatus));
-        } catch (RuntimeException e) {
+            update.accept(journal);
+        } catch (UncheckedIOException | IllegalStateException e) {
             trackingFuture.completeExceptionally(e);
-            throw e;
         }
+    }
 
-        taskTimingInfo.updateEndTime(latestTimeRecorded.get());
+    /**
+     * @return the client this tracker was created for
+     */
+    VcdClient getVcdClient() {
+        return vcdClient;
+    }
 
-        // Determine if we are done based on whether all tasks have been added
-        // and we have recorded status's of all those tasks.
-        if (allTasksAdded.get() && taskCompletionStatus.keySet().containsAll(taskIds)) {
-            taskCompletionStatus.keySet().retainAll(taskIds);
-            trackingFuture.complete(Collections.unmodifiableMap(taskCompletionStatus));
+    /**
+     * @return ids of the tasks added to this tracker
+     */
+    Set<String> getTaskIds() {
+        return Collections.unmodifiableSet(taskIds);
+    }
+
+    /**
+     * @return end time from which the polling engine must look for completed tasks on behalf of
+     *         this tracker, or {@code null} if no tasks have been added
+     */
+    Date getQueryEndTime() {
+        return taskTimingInfo.getEndTime();
+    }
+
+    /**
+     * @return start time of the earliest task added to this tracker, or {@code null} if no tasks
+     *         have been added
+     */
+    Date getEarliestStartTime() {
+        return taskTimingInfo.getStartTime();
+    }
+
+    /**
+     * Records the time of the latest completed task seen by a poll of the polling engine.
+     */
+    void updateEndTime(final Date latestTimeRecorded) {
+        final Date endTime = taskTimingInfo.updateEndTime(latestTimeRecorded);
+        if (endTime != null && !endTime.equals(journaledEndTime)) {
+            journaledEndTime = endTime;
+            journal(j -> j.recordWatermark(endTime));
         }
     }
 
-    private String generateQueryString(final Date lastKnownEndTime) {
-        final SearchConditionBuilder taskFilter = Query.getFilterBuilder();
-        return taskFilter.is("endDate").notBefore(lastKnownEndTime)
-                .and("status").equalTo(TaskStatus.SUCCESS.getLabel(),
-                                       TaskStatus.ERROR.getLabel(),
-                                       //TaskStatus.CANCELED.getLabel(),
-                                       TaskStatus.ABORTED.getLabel()).wrap()
-                .query();
+    /**
+     * Records the completion of one of this tracker's tasks.
+     */
+    void taskCompleted(final String taskId, final TaskStatus status, final String operationName,
+            final long durationMillis) {
+        synchronized (completionListeners) {
+            if (taskCompletionStatus.putIfAbsent(taskId, status) != null) {
+                return;
+            }
+            completedCounts.merge(status, 1, Integer::sum);
+            journal(j -> j.recordCompletion(taskId, status));
+            final List<BiConsumer<String, TaskStatus>> listeners = new ArrayList<>(completionListeners);
+            queueNotification(() -> {
+                try {
+                    taskMetricsRecorder.get().taskCompleted(operationName, status, durationMillis, -1);
+                } catch (RuntimeException e) {
+                    // Metrics are best effort and must not affect tracking
+                }
+                listeners.forEach(listener -> notifyListener(listener, taskId, status));
+            });
+        }
     }
 
-    private XMLGregorianCalendar extractEndDate(final QueryResultRecordType task) {
-        if (task instanceof QueryResultAdminTaskRecordType) {
-            return ((QueryResultAdminTaskRecordType)task).getEndDate();
-        } else if (task instanceof QueryResultTaskRecordType) {
-            return ((QueryResultTaskRecordType)task).getEndDate();
-        } else {
-            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+    /**
+     * Queues a notification to run after those queued before it, on a {@link #NOTIFIER} thread.
+     */
+    private void queueNotification(final Runnable notification) {
+        notifications.add(notification);
+        if (pendingNotifications.getAndIncrement() == 0) {
+            NOTIFIER.execute(this::runNotifications);
         }
     }
 
-    private String extractStatus(final QueryResultRecordType task) {
-        if (task instanceof QueryResultAdminTaskRecordType) {
-            return ((QueryResultAdminTaskRecordType)task).getStatus();
-        } else if (task instanceof QueryResultTaskRecordType) {
-            return ((QueryResultTaskRecordType)task).getStatus();
-        } else {
-            throw new AssertionError("Returned result objects are not of task/adminTask result types");
+    private void runNotifications() {
+        do {
+            notifications.poll().run();
+        } while (pendingNotifications.decrementAndGet() != 0);
+    }
+
+    private void notifyListener(final BiConsumer<String, TaskStatus> listener, final String taskId,
+            final TaskStatus status) {
+        try {
+            listener.accept(taskId, status);
+        } catch (RuntimeException e) {
+            trackingFuture.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails tracking after the polling engine failed to query VCD.
+     */
+    void trackingFailed(final RuntimeException e) {
+        trackingFuture.completeExceptionally(e);
+    }
+
+    /**
+     * Completes tracking if all tasks have been added and their final statuses are known.
+     */
+    void checkCompletion() {
+        // Called after every poll, so a good time to make the poll's updates durable
+        journal(TaskTrackingJournal::flush);
+        if (allTasksAdded.get() && taskCompletionStatus.keySet().containsAll(taskIds)
+                && completionQueued.compareAndSet(false, true)) {
+            // Completes after the completions already queued have been reported
+            queueNotification(() -> {
+                taskCompletionStatus.keySet().retainAll(taskIds);
+                trackingFuture.complete(Collections.unmodifiableMap(taskCompletionStatus));
+            });
         }
     }
 
@@ -173,9 +284,14 @@ class VcdBulkTaskMonitor implements MultiTaskTracker {
 
     private void track(Stream<TaskType> tasks) throws IllegalStateException {
         validateState();
-        tasks
+        final List<String> addedTaskIds = tasks
             .peek(task -> taskTimingInfo.updateStartTime(task.getStartTime().toGregorianCalendar().getTime()))
-            .collect(Collectors.mapping(TaskType::getId, Collectors.toCollection(() -> this.taskIds)));
+            .peek(task -> journal(j -> j.recordTrack(task.getId(), task.getStartTime().toGregorianCalendar().getTime())))
+            .map(TaskType::getId)
+            .collect(Collectors.toList());
+        journal(TaskTrackingJournal::flush);
+        taskIds.addAll(addedTaskIds);
+        pollingEngine.register(this, addedTaskIds);
     }
 
     private void validateState() {
@@ -184,9 +300,38 @@ class VcdBulkTaskMonitor implements MultiTaskTracker {
         }
     }
 
+    @Override
+    public void addCompletionListener(final BiConsumer<String, TaskStatus> listener) {
+        synchronized (completionListeners) {
+            completionListeners.add(listener);
+            final Map<String, TaskStatus> completed = new HashMap<>(taskCompletionStatus);
+            queueNotification(
+                    () -> completed.forEach((taskId, status) -> notifyListener(listener, taskId, status)));
+        }
+    }
+
+    @Override
+    public Progress getProgress() {
+        synchronized (completionListeners) {
+            return new Progress(taskIds.size(), Collections.unmodifiableMap(new EnumMap<>(completedCounts)));
+        }
+    }
+
+    @Override
+    public Set<String> getPendingTaskIds() {
+        final Set<String> pendingTaskIds = new HashSet<>(taskIds);
+        pendingTaskIds.removeAll(taskCompletionStatus.keySet());
+        return Collections.unmodifiableSet(pendingTaskIds);
+    }
+
     @Override
     public Future<Map<String, TaskStatus>> toTrackingFuture() {
-        allTasksAdded.set(true);
+        if (!allTasksAdded.getAndSet(true)) {
+            journal(j -> {
+                j.recordAllTasksAdded();
+                j.flush();
+            });
+        }
         return trackingFuture;
     }
 }
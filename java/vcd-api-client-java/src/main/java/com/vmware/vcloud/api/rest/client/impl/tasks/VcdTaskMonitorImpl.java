@@ -6,6 +6,9 @@
 
 package com.vmware.vcloud.api.rest.client.impl.tasks;
 
+import java.nio.file.Path;
+
+import com.vmware.vcloud.api.rest.client.AsyncTaskMonitor;
 import com.vmware.vcloud.api.rest.client.TaskMonitorImpl;
 import com.vmware.vcloud.api.rest.client.VcdClient;
 import com.vmware.vcloud.api.rest.client.VcdTaskMonitor;
@@ -19,6 +22,7 @@ import com.vmware.vcloud.api.rest.client.VcdTaskMonitor;
  */
 public class VcdTaskMonitorImpl extends TaskMonitorImpl implements VcdTaskMonitor {
     private final VcdClient vcdClient;
+    private volatile AsyncTaskMonitor asyncTaskMonitor;
 
     public VcdTaskMonitorImpl(VcdClient vcdClient) {
         super(vcdClient);
@@ -27,6 +31,26 @@ public class VcdTaskMonitorImpl extends TaskMonitorImpl implements VcdTaskMonito
 
     @Override
     public MultiTaskTracker getMultiTaskTracker() {
-        return new VcdBulkTaskMonitor(vcdClient.duplicate(false));
+        return new VcdBulkTaskMonitor(vcdClient, this::getTaskMetricsRecorder);
+    }
+
+    @Override
+    public MultiTaskTracker getMultiTaskTracker(final Path journal) {
+        return new VcdBulkTaskMonitor(vcdClient, this::getTaskMetricsRecorder, new TaskTrackingJournal(journal));
+    }
+
+    @Override
+    public AsyncTaskMonitor getAsyncTaskMonitor() {
+        AsyncTaskMonitor monitor = asyncTaskMonitor;
+        if (monitor == null) {
+            synchronized (this) {
+                monitor = asyncTaskMonitor;
+                if (monitor == null) {
+                    monitor = new VcdAsyncTaskMonitor(vcdClient, this::getTaskMetricsRecorder);
+                    asyncTaskMonitor = monitor;
+                }
+            }
+        }
+        return monitor;
     }
 }
@@ -0,0 +1,126 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative durations with a fixed relative precision, in the style of
+ * <a href="http://hdrhistogram.org/">HdrHistogram</a>.
+ * <P>
+ * Values are counted in buckets whose width doubles with every power of two, each bucket divided
+ * into {@value #SUB_BUCKET_COUNT} / 2 sub-buckets, so that any value is recorded to within 1% of its
+ * magnitude while values from milliseconds to days need only a few thousand counters. Recording is
+ * lock-free and allocation-free.
+ *
+ * @since 9.1
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    // About 12 days in milliseconds; larger values are recorded as this value
+    private static final long MAX_VALUE = (1L << 30) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(countsIndex(MAX_VALUE) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            value to record; negative values are ignored
+     */
+    public void record(final long value) {
+        if (value < 0) {
+            return;
+        }
+        final long bounded = Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(countsIndex(bounded));
+        totalCount.increment();
+        totalValue.add(bounded);
+        maxValue.accumulateAndGet(bounded, Math::max);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return largest value recorded, or {@code 0} if none
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return mean of the values recorded, or {@code 0} if none
+     */
+    public double getMean() {
+        final long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalValue.sum() / count;
+    }
+
+    /**
+     * Returns the value below which the specified percentage of recorded values fall, to within
+     * the histogram's precision.
+     *
+     * @param percentile
+     *            percentage between {@code 0} and {@code 100}
+     * @return the value at the percentile, or {@code 0} if no values have been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile");
+        }
+        final long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d", getCount(), getMean(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+    }
+
+    private static int countsIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> bucket);
+        return bucket * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    private static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int bucket = index / SUB_BUCKET_HALF_COUNT - 1;
+        final long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
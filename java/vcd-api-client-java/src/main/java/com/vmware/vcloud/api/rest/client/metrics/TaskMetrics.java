@@ -0,0 +1,131 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+
+/**
+ * A {@link TaskMetricsRecorder} that keeps task duration and queue time histograms and outcome
+ * counts in memory, per operation name.
+ *
+ * <pre>
+ *     final TaskMetrics taskMetrics = new TaskMetrics();
+ *     vcdClient.getTaskMonitor().setTaskMetricsRecorder(taskMetrics);
+ *     ...
+ *     final TaskMetrics.OperationMetrics deploys = taskMetrics.getOperationMetrics("vappDeploy");
+ *     System.out.println(deploys.getDuration().getValueAtPercentile(99) + " ms, "
+ *             + deploys.getFailureRate() * 100 + "% failed");
+ * </pre>
+ *
+ * @since 9.1
+ */
+public class TaskMetrics implements TaskMetricsRecorder {
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    @Override
+    public void taskCompleted(final String operationName, final TaskStatus status, final long durationMillis,
+            final long queueTimeMillis) {
+        if (operationName == null || status == null) {
+            return;
+        }
+        operations.computeIfAbsent(operationName, name -> new OperationMetrics())
+                .record(status, durationMillis, queueTimeMillis);
+    }
+
+    /**
+     * @return names of the operations for which tasks have been recorded
+     */
+    public Set<String> getOperationNames() {
+        return Collections.unmodifiableSet(operations.keySet());
+    }
+
+    /**
+     * @return metrics of the specified operation, or {@code null} if no tasks of that operation
+     *         have been recorded
+     */
+    public OperationMetrics getOperationMetrics(final String operationName) {
+        return operations.get(operationName);
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Metrics of the tasks of one operation.
+     */
+    public static final class OperationMetrics {
+        private final LatencyHistogram duration = new LatencyHistogram();
+        private final LatencyHistogram queueTime = new LatencyHistogram();
+        private final AtomicLongArray statusCounts = new AtomicLongArray(TaskStatus.values().length);
+
+        private OperationMetrics() {}
+
+        private void record(final TaskStatus status, final long durationMillis, final long queueTimeMillis) {
+            statusCounts.incrementAndGet(status.ordinal());
+            duration.record(durationMillis);
+            queueTime.record(queueTimeMillis);
+        }
+
+        /**
+         * @return histogram of the time between tasks' start and end, in milliseconds
+         */
+        public LatencyHistogram getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return histogram of the time tasks were observed queued before running, in
+         *         milliseconds
+         */
+        public LatencyHistogram getQueueTime() {
+            return queueTime;
+        }
+
+        /**
+         * @return number of tasks recorded
+         */
+        public long getCompleted() {
+            long completed = 0;
+            for (int i = 0; i < statusCounts.length(); i++) {
+                completed += statusCounts.get(i);
+            }
+            return completed;
+        }
+
+        /**
+         * @return number of tasks recorded with the specified final status
+         */
+        public long getCompleted(final TaskStatus status) {
+            return statusCounts.get(status.ordinal());
+        }
+
+        /**
+         * @return fraction of recorded tasks that ended in error or were aborted
+         */
+        public double getFailureRate() {
+            final long completed = getCompleted();
+            return completed == 0 ? 0
+                    : (double) (getCompleted(TaskStatus.ERROR) + getCompleted(TaskStatus.ABORTED)) / completed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("completed=%d, failureRate=%.3f, duration=[%s], queueTime=[%s]",
+                    getCompleted(), getFailureRate(), duration, queueTime);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.metrics;
+
+import com.vmware.vcloud.api.rest.client.TaskStatus;
+
+/**
+ * Service provider interface for recording the outcome of tasks observed by the client's task
+ * monitors, for example to publish them to a metrics system.
+ * <P>
+ * Implementations are called on the monitors' polling threads, possibly concurrently, and should
+ * be thread-safe and return quickly. {@link TaskMetrics} is a self-contained implementation.
+ *
+ * @see com.vmware.vcloud.api.rest.client.TaskMonitor#setTaskMetricsRecorder(TaskMetricsRecorder)
+ * @since 9.1
+ */
+@FunctionalInterface
+public interface TaskMetricsRecorder {
+    /**
+     * A recorder that discards everything.
+     */
+    TaskMetricsRecorder NOOP = (operationName, status, durationMillis, queueTimeMillis) -> {};
+
+    /**
+     * Records a task that reached a final status.
+     *
+     * @param operationName
+     *            the task's operation name, such as {@code vappDeploy}
+     * @param status
+     *            the task's final status
+     * @param durationMillis
+     *            time between the task's start and end, as reported by VCD
+     * @param queueTimeMillis
+     *            time the task was observed to wait before running, or {@code -1} if the task was
+     *            not observed while queued
+     */
+    void taskCompleted(String operationName, TaskStatus status, long durationMillis, long queueTimeMillis);
+}
@@ -0,0 +1,753 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * A column oriented, compact copy of selected fields of a query's results, for analytics and
+ * capacity reporting over large result sets.
+ * <P>
+ * Each requested field is stored in a single column whose representation depends on the field's
+ * type as exposed by the record class:
+ * <ul>
+ * <li>{@code int}, {@code long}, {@code double} and {@code boolean} fields are stored in primitive
+ * arrays ({@code float} fields are widened to {@code double})
+ * <li>date fields are stored as epoch milliseconds in a {@code long} array
+ * <li>all other fields are dictionary-encoded: each distinct string is stored once and rows hold
+ * an {@code int} code, which suits low cardinality fields such as status, org or vdc
+ * </ul>
+ * Record ids are stored separately as a dictionary-encoded prefix plus a 128-bit {@link UUID}.
+ * Missing values are tracked per column in a {@link BitSet}.
+ * <P>
+ * Filters return a {@link BitSet} of matching rows, computed with a tight loop over the column's
+ * array, which can be combined with {@link BitSet#and(BitSet)} or {@link BitSet#or(BitSet)} and
+ * passed to the aggregate methods:
+ *
+ * <pre>
+ *     final ColumnarQueryResult vms = ColumnarQueryResult.from(
+ *             vcdClient.getQuery("adminVM", QueryResultVMRecordType.class)
+ *                     .setFields(Arrays.asList("status", "vdc", "numberOfCpus", "memoryMB")),
+ *             QueryResultVMRecordType.class, "status", "vdc", "numberOfCpus", "memoryMB");
+ *     final BitSet poweredOn = vms.whereEquals("status", "POWERED_ON");
+ *     final Map&lt;String, Double&gt; memoryPerVdc = vms.sumBy("vdc", "memoryMB", poweredOn);
+ * </pre>
+ *
+ * Instances are immutable once built and may be shared between threads.
+ *
+ * @since 9.1
+ */
+public final class ColumnarQueryResult {
+
+    /**
+     * Physical representation of a column.
+     */
+    public enum ColumnType {
+        INT, LONG, DOUBLE, BOOLEAN, TIMESTAMP, STRING
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int rowCount;
+    private final IdColumn ids;
+    private final Map<String, Column> columns;
+
+    private ColumnarQueryResult(final int rowCount, final IdColumn ids, final Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.ids = ids;
+        this.columns = Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * Executes the query and collects the specified fields of all of its results.
+     * <P>
+     * Records are consumed one at a time from {@link Query#stream()} and are not retained, so only
+     * one page of JAXB objects is held in memory at any time. To avoid transferring unneeded data
+     * configure the query with a matching {@link Query#setFields(java.util.Collection)} projection.
+     */
+    public static <T extends QueryResultRecordType> ColumnarQueryResult from(final Query<T> query,
+            final Class<T> recordClass, final String... fields) {
+        try (final Stream<T> records = query.stream()) {
+            return from(records, recordClass, fields);
+        }
+    }
+
+    /**
+     * Collects the specified fields of the records in the specified stream.
+     */
+    public static <T extends QueryResultRecordType> ColumnarQueryResult from(final Stream<T> records,
+            final Class<T> recordClass, final String... fields) {
+        final Builder builder = new Builder(recordClass, fields);
+        records.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Incrementally builds a {@link ColumnarQueryResult}.
+     */
+    public static final class Builder {
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+        private final Map<String, Function<Object, Object>> accessors = new HashMap<>();
+        private final IdColumn ids = new IdColumn();
+        private int rowCount;
+
+        public Builder(final Class<? extends QueryResultRecordType> recordClass, final String... fields) {
+            for (final String field : fields) {
+                accessors.put(field, RecordFields.accessor(recordClass, field));
+                columns.put(field, Column.forType(RecordFields.type(recordClass, field)));
+            }
+        }
+
+        /**
+         * Appends a record's values to the columns.
+         */
+        public Builder add(final QueryResultRecordType record) {
+            ids.add(rowCount, record.getId());
+            for (final Map.Entry<String, Column> column : columns.entrySet()) {
+                column.getValue().add(rowCount, accessors.get(column.getKey()).apply(record));
+            }
+            rowCount++;
+            return this;
+        }
+
+        public ColumnarQueryResult build() {
+            ids.trim(rowCount);
+            columns.values().forEach(c -> c.trim(rowCount));
+            return new ColumnarQueryResult(rowCount, ids, new LinkedHashMap<>(columns));
+        }
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * @return a {@link BitSet} selecting all rows
+     */
+    public BitSet allRows() {
+        final BitSet rows = new BitSet(rowCount);
+        rows.set(0, rowCount);
+        return rows;
+    }
+
+    /**
+     * @return the names of the columns, in the order they were requested
+     */
+    public List<String> getColumnNames() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    public ColumnType getColumnType(final String field) {
+        return column(field).type;
+    }
+
+    /**
+     * @return the id of the record at the specified row
+     */
+    public String getId(final int row) {
+        checkRow(row);
+        return ids.get(row);
+    }
+
+    /**
+     * @return {@code true} if the record at the specified row had no value for the field
+     */
+    public boolean isNull(final String field, final int row) {
+        checkRow(row);
+        return column(field).nulls.get(row);
+    }
+
+    /**
+     * Returns the value at the specified row, boxed. Timestamps are returned as epoch
+     * milliseconds.
+     */
+    public Object getValue(final String field, final int row) {
+        checkRow(row);
+        return column(field).get(row);
+    }
+
+    public int getInt(final String field, final int row) {
+        checkRow(row);
+        return column(field, ColumnType.INT).ints[row];
+    }
+
+    public long getLong(final String field, final int row) {
+        checkRow(row);
+        final Column column = column(field);
+        if (column.type == ColumnType.INT) {
+            return column.ints[row];
+        }
+        return column(field, ColumnType.LONG, ColumnType.TIMESTAMP).longs[row];
+    }
+
+    public double getDouble(final String field, final int row) {
+        checkRow(row);
+        final Column column = column(field);
+        return column.numericValue(row);
+    }
+
+    public boolean getBoolean(final String field, final int row) {
+        checkRow(row);
+        return column(field, ColumnType.BOOLEAN).booleans.get(row);
+    }
+
+    public String getString(final String field, final int row) {
+        checkRow(row);
+        final Column column = column(field);
+        if (column.type != ColumnType.STRING) {
+            final Object value = column.get(row);
+            return value == null ? null : value.toString();
+        }
+        return column.dictionary.get(column.ints[row]);
+    }
+
+    /**
+     * Selects the rows whose value for the field equals the specified value. For dictionary
+     * encoded columns the value is looked up once and rows are matched by their code.
+     */
+    public BitSet whereEquals(final String field, final Object value) {
+        final Column column = column(field);
+        final BitSet result = new BitSet(rowCount);
+        if (value == null) {
+            result.or(column.nulls);
+            return result;
+        }
+        switch (column.type) {
+        case STRING:
+            final Integer code = column.codes.get(value.toString());
+            if (code != null) {
+                final int c = code;
+                final int[] values = column.ints;
+                for (int i = 0; i < rowCount; i++) {
+                    if (values[i] == c) {
+                        result.set(i);
+                    }
+                }
+                // Null rows carry code 0, the first dictionary value's code
+                result.andNot(column.nulls);
+            }
+            return result;
+        case BOOLEAN:
+            return whereBoolean(field, (Boolean) value);
+        case INT:
+            final int intValue = ((Number) value).intValue();
+            return whereInt(field, v -> v == intValue);
+        case DOUBLE:
+            final double doubleValue = ((Number) value).doubleValue();
+            return whereDouble(field, v -> v == doubleValue);
+        default:
+            final long longValue = value instanceof XMLGregorianCalendar
+                    ? toMillis((XMLGregorianCalendar) value)
+                    : ((Number) value).longValue();
+            return whereLong(field, v -> v == longValue);
+        }
+    }
+
+    /**
+     * Selects the rows of a dictionary encoded column whose value satisfies the predicate. The
+     * predicate is evaluated once per distinct value rather than once per row.
+     */
+    public BitSet whereString(final String field, final Predicate<String> predicate) {
+        final Column column = column(field, ColumnType.STRING);
+        final boolean[] matchingCodes = new boolean[column.dictionary.size()];
+        for (int code = 0; code < matchingCodes.length; code++) {
+            matchingCodes[code] = predicate.test(column.dictionary.get(code));
+        }
+        final BitSet result = new BitSet(rowCount);
+        final int[] values = column.ints;
+        final BitSet nulls = column.nulls;
+        for (int i = 0; i < rowCount; i++) {
+            // Null rows carry code 0, which is not in the dictionary if every value is null
+            if (!nulls.get(i) && matchingCodes[values[i]]) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    public BitSet whereInt(final String field, final IntPredicate predicate) {
+        final int[] values = column(field, ColumnType.INT).ints;
+        final BitSet result = new BitSet(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (predicate.test(values[i])) {
+                result.set(i);
+            }
+        }
+        result.andNot(column(field).nulls);
+        return result;
+    }
+
+    /**
+     * Selects rows of a {@code long} or timestamp column whose value satisfies the predicate.
+     */
+    public BitSet whereLong(final String field, final LongPredicate predicate) {
+        final long[] values = column(field, ColumnType.LONG, ColumnType.TIMESTAMP).longs;
+        final BitSet result = new BitSet(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (predicate.test(values[i])) {
+                result.set(i);
+            }
+        }
+        result.andNot(column(field).nulls);
+        return result;
+    }
+
+    public BitSet whereDouble(final String field, final DoublePredicate predicate) {
+        final double[] values = column(field, ColumnType.DOUBLE).doubles;
+        final BitSet result = new BitSet(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (predicate.test(values[i])) {
+                result.set(i);
+            }
+        }
+        result.andNot(column(field).nulls);
+        return result;
+    }
+
+    public BitSet whereBoolean(final String field, final boolean value) {
+        final Column column = column(field, ColumnType.BOOLEAN);
+        final BitSet result = (BitSet) column.booleans.clone();
+        if (!value) {
+            result.flip(0, rowCount);
+        }
+        result.andNot(column.nulls);
+        return result;
+    }
+
+    /**
+     * Sums a numeric column over the selected rows, skipping missing values.
+     */
+    public double sum(final String field, final BitSet rows) {
+        final Column column = column(field);
+        double sum = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < rowCount; i = rows.nextSetBit(i + 1)) {
+            if (!column.nulls.get(i)) {
+                sum += column.numericValue(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the average of a numeric column over the selected rows that have a value, or
+     *         {@link Double#NaN} if there are none
+     */
+    public double average(final String field, final BitSet rows) {
+        final BitSet present = (BitSet) rows.clone();
+        present.andNot(column(field).nulls);
+        final int count = count(present);
+        return count == 0 ? Double.NaN : sum(field, present) / count;
+    }
+
+    public double min(final String field, final BitSet rows) {
+        return reduce(field, rows, Double.POSITIVE_INFINITY, true);
+    }
+
+    public double max(final String field, final BitSet rows) {
+        return reduce(field, rows, Double.NEGATIVE_INFINITY, false);
+    }
+
+    private double reduce(final String field, final BitSet rows, final double identity, final boolean min) {
+        final Column column = column(field);
+        double result = identity;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < rowCount; i = rows.nextSetBit(i + 1)) {
+            if (!column.nulls.get(i)) {
+                final double value = column.numericValue(i);
+                result = min ? Math.min(result, value) : Math.max(result, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int count(final BitSet rows) {
+        return rows.get(0, rowCount).cardinality();
+    }
+
+    /**
+     * Counts the selected rows per distinct value of a dictionary encoded column. Rows without a
+     * value are counted under the {@code null} key.
+     */
+    public Map<String, Long> countBy(final String groupField, final BitSet rows) {
+        final Column group = column(groupField, ColumnType.STRING);
+        final long[] counts = new long[group.dictionary.size()];
+        long nullCount = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < rowCount; i = rows.nextSetBit(i + 1)) {
+            if (group.nulls.get(i)) {
+                nullCount++;
+            } else {
+                counts[group.ints[i]]++;
+            }
+        }
+        return toGroupMap(group, counts, nullCount);
+    }
+
+    /**
+     * Sums a numeric column over the selected rows per distinct value of a dictionary encoded
+     * column.
+     */
+    public Map<String, Double> sumBy(final String groupField, final String valueField, final BitSet rows) {
+        final Column group = column(groupField, ColumnType.STRING);
+        final Column value = column(valueField);
+        final double[] sums = new double[group.dictionary.size()];
+        final boolean[] seen = new boolean[sums.length];
+        double nullSum = 0;
+        boolean nullSeen = false;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < rowCount; i = rows.nextSetBit(i + 1)) {
+            final double v = value.nulls.get(i) ? 0 : value.numericValue(i);
+            if (group.nulls.get(i)) {
+                nullSum += v;
+                nullSeen = true;
+            } else {
+                sums[group.ints[i]] += v;
+                seen[group.ints[i]] = true;
+            }
+        }
+        final Map<String, Double> result = new LinkedHashMap<>();
+        for (int code = 0; code < sums.length; code++) {
+            if (seen[code]) {
+                result.put(group.dictionary.get(code), sums[code]);
+            }
+        }
+        if (nullSeen) {
+            result.put(null, nullSum);
+        }
+        return result;
+    }
+
+    private static Map<String, Long> toGroupMap(final Column group, final long[] counts, final long nullCount) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(group.dictionary.get(code), counts[code]);
+            }
+        }
+        if (nullCount > 0) {
+            result.put(null, nullCount);
+        }
+        return result;
+    }
+
+    /**
+     * Estimates the heap retained by this result's arrays and dictionaries, assuming a 64-bit JVM
+     * with compressed references.
+     *
+     * @return estimated size in bytes
+     */
+    public long estimateMemoryFootprint() {
+        long bytes = ids.estimateMemoryFootprint();
+        for (final Column column : columns.values()) {
+            bytes += column.estimateMemoryFootprint();
+        }
+        return bytes;
+    }
+
+    private Column column(final String field) {
+        final Column column = columns.get(field);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown column '" + field + "'; columns: " + columns.keySet());
+        }
+        return column;
+    }
+
+    private Column column(final String field, final ColumnType... types) {
+        final Column column = column(field);
+        for (final ColumnType type : types) {
+            if (column.type == type) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Column '" + field + "' is of type " + column.type + ", expected "
+                + Arrays.toString(types));
+    }
+
+    private void checkRow(final int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+    }
+
+    private static long toMillis(final XMLGregorianCalendar calendar) {
+        return calendar.toGregorianCalendar().getTimeInMillis();
+    }
+
+    /**
+     * Storage for a single field. Only the arrays relevant to the column's type are allocated.
+     */
+    private static final class Column {
+        private final ColumnType type;
+        private final BitSet nulls = new BitSet();
+
+        private int[] ints;
+        private long[] longs;
+        private double[] doubles;
+        private BitSet booleans;
+        private List<String> dictionary;
+        private Map<String, Integer> codes;
+
+        private Column(final ColumnType type) {
+            this.type = type;
+            switch (type) {
+            case INT:
+                ints = new int[INITIAL_CAPACITY];
+                break;
+            case LONG:
+            case TIMESTAMP:
+                longs = new long[INITIAL_CAPACITY];
+                break;
+            case DOUBLE:
+                doubles = new double[INITIAL_CAPACITY];
+                break;
+            case BOOLEAN:
+                booleans = new BitSet();
+                break;
+            default:
+                ints = new int[INITIAL_CAPACITY];
+                dictionary = new ArrayList<>();
+                codes = new HashMap<>();
+            }
+        }
+
+        static Column forType(final Class<?> javaType) {
+            if (javaType == int.class || javaType == Integer.class
+                    || javaType == short.class || javaType == Short.class) {
+                return new Column(ColumnType.INT);
+            } else if (javaType == long.class || javaType == Long.class) {
+                return new Column(ColumnType.LONG);
+            } else if (javaType == double.class || javaType == Double.class
+                    || javaType == float.class || javaType == Float.class) {
+                return new Column(ColumnType.DOUBLE);
+            } else if (javaType == boolean.class || javaType == Boolean.class) {
+                return new Column(ColumnType.BOOLEAN);
+            } else if (XMLGregorianCalendar.class.isAssignableFrom(javaType)) {
+                return new Column(ColumnType.TIMESTAMP);
+            }
+            return new Column(ColumnType.STRING);
+        }
+
+        void add(final int row, final Object value) {
+            ensureCapacity(row + 1);
+            if (value == null) {
+                nulls.set(row);
+                return;
+            }
+            switch (type) {
+            case INT:
+                ints[row] = ((Number) value).intValue();
+                break;
+            case LONG:
+                longs[row] = ((Number) value).longValue();
+                break;
+            case TIMESTAMP:
+                longs[row] = toMillis((XMLGregorianCalendar) value);
+                break;
+            case DOUBLE:
+                doubles[row] = ((Number) value).doubleValue();
+                break;
+            case BOOLEAN:
+                booleans.set(row, (Boolean) value);
+                break;
+            default:
+                final String string = value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+                Integer code = codes.get(string);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add(string);
+                    codes.put(string, code);
+                }
+                ints[row] = code;
+            }
+        }
+
+        Object get(final int row) {
+            if (nulls.get(row)) {
+                return null;
+            }
+            switch (type) {
+            case INT:
+                return ints[row];
+            case LONG:
+            case TIMESTAMP:
+                return longs[row];
+            case DOUBLE:
+                return doubles[row];
+            case BOOLEAN:
+                return booleans.get(row);
+            default:
+                return dictionary.get(ints[row]);
+            }
+        }
+
+        double numericValue(final int row) {
+            switch (type) {
+            case INT:
+                return ints[row];
+            case LONG:
+            case TIMESTAMP:
+                return longs[row];
+            case DOUBLE:
+                return doubles[row];
+            case BOOLEAN:
+                return booleans.get(row) ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Column of type " + type + " is not numeric");
+            }
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (ints != null && ints.length < capacity) {
+                ints = Arrays.copyOf(ints, Math.max(capacity, ints.length * 2));
+            } else if (longs != null && longs.length < capacity) {
+                longs = Arrays.copyOf(longs, Math.max(capacity, longs.length * 2));
+            } else if (doubles != null && doubles.length < capacity) {
+                doubles = Arrays.copyOf(doubles, Math.max(capacity, doubles.length * 2));
+            }
+        }
+
+        void trim(final int rowCount) {
+            if (ints != null) {
+                ints = Arrays.copyOf(ints, rowCount);
+            } else if (longs != null) {
+                longs = Arrays.copyOf(longs, rowCount);
+            } else if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, rowCount);
+            }
+        }
+
+        long estimateMemoryFootprint() {
+            long bytes = 32L + nulls.size() / 8;
+            if (ints != null) {
+                bytes += 16L + 4L * ints.length;
+            }
+            if (longs != null) {
+                bytes += 16L + 8L * longs.length;
+            }
+            if (doubles != null) {
+                bytes += 16L + 8L * doubles.length;
+            }
+            if (booleans != null) {
+                bytes += booleans.size() / 8;
+            }
+            if (dictionary != null) {
+                for (final String value : dictionary) {
+                    // list slot, string object and its bytes, and the reverse lookup map entry
+                    bytes += 4L + 40L + value.length() + 48L;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Storage for record ids. Ids of the form {@code <prefix><uuid>} (for example
+     * {@code urn:vcloud:vm:<uuid>}) are stored as a dictionary-encoded prefix and two
+     * {@code long}s; any other ids are kept verbatim. Missing ids, as in results of queries not
+     * run in the {@link com.vmware.vcloud.api.rest.client.QueryResultFormat#ID_RECORDS ID_RECORDS}
+     * format, take a bit each.
+     */
+    private static final class IdColumn {
+        private static final int UUID_LENGTH = 36;
+
+        private int[] prefixCodes = new int[INITIAL_CAPACITY];
+        private long[] mostSignificantBits = new long[INITIAL_CAPACITY];
+        private long[] leastSignificantBits = new long[INITIAL_CAPACITY];
+        private final List<String> prefixes = new ArrayList<>();
+        private final Map<String, Integer> prefixLookup = new HashMap<>();
+        private final Map<Integer, String> verbatim = new HashMap<>();
+        private final BitSet nulls = new BitSet();
+
+        void add(final int row, final String id) {
+            if (prefixCodes.length <= row) {
+                final int capacity = prefixCodes.length * 2;
+                prefixCodes = Arrays.copyOf(prefixCodes, capacity);
+                mostSignificantBits = Arrays.copyOf(mostSignificantBits, capacity);
+                leastSignificantBits = Arrays.copyOf(leastSignificantBits, capacity);
+            }
+            if (id == null) {
+                prefixCodes[row] = -1;
+                nulls.set(row);
+                return;
+            }
+            final UUID uuid = id.length() < UUID_LENGTH ? null : parseUuid(id);
+            if (uuid == null) {
+                prefixCodes[row] = -1;
+                verbatim.put(row, id);
+                return;
+            }
+            final String prefix = id.substring(0, id.length() - UUID_LENGTH);
+            Integer code = prefixLookup.get(prefix);
+            if (code == null) {
+                code = prefixes.size();
+                prefixes.add(prefix);
+                prefixLookup.put(prefix, code);
+            }
+            prefixCodes[row] = code;
+            mostSignificantBits[row] = uuid.getMostSignificantBits();
+            leastSignificantBits[row] = uuid.getLeastSignificantBits();
+        }
+
+        private static UUID parseUuid(final String id) {
+            final String candidate = id.substring(id.length() - UUID_LENGTH);
+            try {
+                final UUID uuid = UUID.fromString(candidate);
+                // Only accept ids that round-trip exactly, so that get() reproduces the original
+                return uuid.toString().equals(candidate) ? uuid : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        String get(final int row) {
+            final int code = prefixCodes[row];
+            if (code < 0) {
+                return nulls.get(row) ? null : verbatim.get(row);
+            }
+            return prefixes.get(code) + new UUID(mostSignificantBits[row], leastSignificantBits[row]);
+        }
+
+        void trim(final int rowCount) {
+            prefixCodes = Arrays.copyOf(prefixCodes, rowCount);
+            mostSignificantBits = Arrays.copyOf(mostSignificantBits, rowCount);
+            leastSignificantBits = Arrays.copyOf(leastSignificantBits, rowCount);
+        }
+
+        long estimateMemoryFootprint() {
+            long bytes = 48L + 20L * prefixCodes.length + nulls.size() / 8;
+            for (final String prefix : prefixes) {
+                bytes += 4L + 40L + prefix.length() + 48L;
+            }
+            for (final String id : verbatim.values()) {
+                bytes += 48L + 16L + 40L + id.length();
+            }
+            return bytes;
+        }
+    }
+}
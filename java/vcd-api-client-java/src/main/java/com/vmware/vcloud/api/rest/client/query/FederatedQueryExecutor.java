@@ -0,0 +1,437 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.vmware.vcloud.api.rest.client.QueryResultFormat;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.client.VcdClient.QueryListPage;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * Runs the same query against several VCD sites concurrently and merges their results.
+ * <P>
+ * Unlike a multisite (federated) request, which the associated site answers by querying its
+ * peers one after another, this executor issues the query to every site directly, each with its
+ * own {@link VcdClient}. Every site's query is sorted server side by the configured order field,
+ * and the per-site streams are merged on the client into a single stream in that order. Records
+ * reported by more than one site (same id and same order field value) are returned once.
+ * <P>
+ * A site failing is recorded in its {@link SiteReport} and its remaining results are skipped,
+ * unless the executor is configured to {@link #setFailFast(boolean) fail fast}. Reports also
+ * carry each site's record count and latencies, and are updated as the merged stream is consumed:
+ *
+ * <pre>
+ *     final FederatedQueryExecutor&lt;QueryResultVMRecordType&gt; executor = new FederatedQueryExecutor&lt;&gt;(
+ *             siteClients,
+ *             client -&gt; client.getQuery("adminVM", QueryResultVMRecordType.class),
+ *             "name", true);
+ *     try (FederatedQueryExecutor&lt;QueryResultVMRecordType&gt;.Execution execution = executor.execute()) {
+ *         execution.stream().forEach(vm -&gt; ...);
+ *         execution.getSiteReports().values().stream()
+ *                 .filter(report -&gt; report.getFailure() != null)
+ *                 .forEach(report -&gt; ...);
+ *     }
+ * </pre>
+ *
+ * @param <T>
+ *            query result record type
+ * @since 9.1
+ */
+public class FederatedQueryExecutor<T extends QueryResultRecordType> {
+    private static final int SITE_QUEUE_CAPACITY = 2 * Query.DEFAULT_MAX_PAGE_SIZE;
+
+    private final Map<String, VcdClient> siteClients;
+    private final Function<VcdClient, Query<T>> queryFactory;
+    private final String orderField;
+    private final boolean ascending;
+    private boolean failFast;
+
+    /**
+     * @param siteClients
+     *            authenticated clients, keyed by a site name used in reports
+     * @param queryFactory
+     *            creates the query to run against a site's client; the executor sets the query's
+     *            result format, sort order and page size
+     * @param orderField
+     *            field to sort and merge results by
+     * @param ascending
+     *            {@code true} to sort ascending, {@code false} for descending
+     */
+    public FederatedQueryExecutor(final Map<String, VcdClient> siteClients,
+            final Function<VcdClient, Query<T>> queryFactory, final String orderField, final boolean ascending) {
+        if (siteClients == null || siteClients.isEmpty()) {
+            throw new IllegalArgumentException("siteClients");
+        }
+        if (queryFactory == null) {
+            throw new IllegalArgumentException("queryFactory");
+        }
+        if (orderField == null) {
+            throw new IllegalArgumentException("orderField");
+        }
+        this.siteClients = Collections.unmodifiableMap(new LinkedHashMap<>(siteClients));
+        this.queryFactory = queryFactory;
+        this.orderField = orderField;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Configures whether the merged stream fails as soon as any site fails. Disabled by default,
+     * in which case a failed site's remaining results are skipped.
+     *
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public FederatedQueryExecutor<T> setFailFast(final boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * Starts querying all sites. Results are buffered per site up to a couple of pages ahead of
+     * the consumer of {@link Execution#stream()}.
+     *
+     * @return the running execution, which must be closed to stop outstanding site queries
+     */
+    public Execution execute() {
+        return new Execution();
+    }
+
+    /**
+     * Progress and outcome of the query at one site.
+     */
+    public static final class SiteReport {
+        private final String site;
+        private volatile long recordsFetched;
+        private volatile long duplicatesDropped;
+        private volatile long pagesFetched;
+        private volatile long pageFetchNanos;
+        private volatile long firstPageNanos = -1;
+        private volatile boolean complete;
+        private volatile RuntimeException failure;
+
+        SiteReport(final String site) {
+            this.site = site;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public long getRecordsFetched() {
+            return recordsFetched;
+        }
+
+        /**
+         * @return number of this site's records dropped as duplicates of another site's
+         */
+        public long getDuplicatesDropped() {
+            return duplicatesDropped;
+        }
+
+        public long getPagesFetched() {
+            return pagesFetched;
+        }
+
+        /**
+         * @return time until the site returned its first page, or {@code -1} if it has not yet
+         */
+        public long getFirstPageLatency(final TimeUnit unit) {
+            final long nanos = firstPageNanos;
+            return nanos < 0 ? -1 : unit.convert(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return average time taken to fetch a page from the site, or {@code -1} if no page has
+         *         been fetched
+         */
+        public long getAveragePageLatency(final TimeUnit unit) {
+            final long pages = pagesFetched;
+            return pages == 0 ? -1 : unit.convert(pageFetchNanos / pages, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return {@code true} once all of the site's results have been fetched
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return the exception the site's query failed with, or {@code null}
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d records (%d duplicates) in %d pages, first page %d ms, avg page %d ms%s",
+                    site, recordsFetched, duplicatesDropped, pagesFetched,
+                    getFirstPageLatency(TimeUnit.MILLISECONDS), getAveragePageLatency(TimeUnit.MILLISECONDS),
+                    failure != null ? ", failed: " + failure : complete ? "" : ", incomplete");
+        }
+    }
+
+    /**
+     * A running federated query.
+     */
+    public final class Execution implements AutoCloseable {
+        private final Map<String, SiteReport> reports = new LinkedHashMap<>();
+        private final List<BlockingQueue<Object>> siteQueues = new ArrayList<>();
+        private final List<SiteReport> siteReports = new ArrayList<>();
+        private final ExecutorService executor;
+        private boolean streamed;
+
+        private Execution() {
+            executor = Executors.newFixedThreadPool(siteClients.size(), runnable -> {
+                final Thread thread = new Thread(runnable, "federated-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (final Map.Entry<String, VcdClient> site : siteClients.entrySet()) {
+                final SiteReport report = new SiteReport(site.getKey());
+                final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(SITE_QUEUE_CAPACITY);
+                reports.put(site.getKey(), report);
+                siteReports.add(report);
+                siteQueues.add(queue);
+                executor.execute(() -> fetchSite(site.getValue(), report, queue));
+            }
+            executor.shutdown();
+        }
+
+        /**
+         * @return reports for each site, in the order the sites were configured
+         */
+        public Map<String, SiteReport> getSiteReports() {
+            return Collections.unmodifiableMap(reports);
+        }
+
+        /**
+         * Returns the merged results. May only be called once per execution.
+         *
+         * @throws RuntimeException
+         *             from the stream's terminal operation if a site fails and the executor is
+         *             configured to fail fast
+         */
+        public synchronized Stream<T> stream() {
+            if (streamed) {
+                throw new IllegalStateException("Results of an execution can only be streamed once");
+            }
+            streamed = true;
+            return StreamSupport.stream(
+                    Spliterators.spliteratorUnknownSize(new MergeIterator(), Spliterator.ORDERED | Spliterator.NONNULL),
+                    false).onClose(this::close);
+        }
+
+        /**
+         * Stops any outstanding site queries.
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+
+        private void fetchSite(final VcdClient client, final SiteReport report, final BlockingQueue<Object> queue) {
+            final long start = System.nanoTime();
+            Object endMarker = SiteEnd.INSTANCE;
+            try {
+                // Ids, by which duplicates are dropped, are only returned in the ID_RECORDS format
+                final Query<T> query = queryFactory.apply(client)
+                        .setQueryResultFormat(QueryResultFormat.ID_RECORDS)
+                        .setPageSize(Query.DEFAULT_MAX_PAGE_SIZE);
+                if (ascending) {
+                    query.setSortAsc(orderField);
+                } else {
+                    query.setSortDesc(orderField);
+                }
+                final ListIterator<QueryListPage<T>> pages = query.execute();
+                long pageStart = start;
+                while (pages.hasNext()) {
+                    final List<T> page = pages.next().getPage();
+                    final long now = System.nanoTime();
+                    if (report.firstPageNanos < 0) {
+                        report.firstPageNanos = now - start;
+                    }
+                    report.pageFetchNanos += now - pageStart;
+                    report.pagesFetched++;
+                    for (final T record : page) {
+                        queue.put(record);
+                    }
+                    report.recordsFetched += page.size();
+                    pageStart = System.nanoTime();
+                }
+                report.complete = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                endMarker = null;
+            } catch (RuntimeException e) {
+                report.failure = e;
+                endMarker = new SiteFailure(e);
+            } catch (Error e) {
+                report.failure = new IllegalStateException("Site query failed", e);
+                endMarker = new SiteFailure(report.failure);
+                throw e;
+            } finally {
+                // The consumer waits for every site's end marker, so one is queued however the
+                // site's query ends, unless the execution has been closed
+                if (endMarker != null) {
+                    try {
+                        queue.put(endMarker);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /**
+         * K-way merge of the site queues by order field, dropping records whose id was already
+         * returned for the same order field value.
+         */
+        private final class MergeIterator implements Iterator<T> {
+            private final PriorityQueue<Head> heads = new PriorityQueue<>();
+            private final Set<String> idsAtCurrentValue = new HashSet<>();
+            private Object currentValue;
+            private boolean initialized;
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                if (!initialized) {
+                    initialized = true;
+                    for (int site = 0; site < siteQueues.size(); site++) {
+                        advance(site);
+                    }
+                }
+                while (next == null && !heads.isEmpty()) {
+                    final Head head = heads.poll();
+                    advance(head.site);
+
+                    if (compareValues(head.value, currentValue) != 0 || idsAtCurrentValue.isEmpty()) {
+                        currentValue = head.value;
+                        idsAtCurrentValue.clear();
+                    }
+                    final String id = head.record.getId();
+                    if (id != null && !idsAtCurrentValue.add(id)) {
+                        siteReports.get(head.site).duplicatesDropped++;
+                        continue;
+                    }
+                    next = head.record;
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final T result = next;
+                next = null;
+                return result;
+            }
+
+            @SuppressWarnings("unchecked")
+            private void advance(final int site) {
+                final Object element;
+                try {
+                    element = siteQueues.get(site).take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException("Interrupted while waiting for site results", e);
+                }
+                if (element instanceof SiteFailure) {
+                    if (failFast) {
+                        close();
+                        throw ((SiteFailure) element).cause;
+                    }
+                } else if (element != SiteEnd.INSTANCE) {
+                    final T record = (T) element;
+                    heads.add(new Head(record, RecordFields.get(record, orderField), site));
+                }
+            }
+        }
+    }
+
+    private final class Head implements Comparable<Head> {
+        private final T record;
+        private final Object value;
+        private final int site;
+
+        Head(final T record, final Object value, final int site) {
+            this.record = record;
+            this.value = value;
+            this.site = site;
+        }
+
+        @Override
+        public int compareTo(final Head other) {
+            final int byValue = compareValues(value, other.value);
+            // Ties are broken by site order, keeping the merge deterministic
+            return byValue != 0 ? (ascending ? byValue : -byValue) : Integer.compare(site, other.site);
+        }
+    }
+
+    private enum SiteEnd {
+        INSTANCE
+    }
+
+    private static final class SiteFailure {
+        private final RuntimeException cause;
+
+        SiteFailure(final RuntimeException cause) {
+            this.cause = cause;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(final Object a, final Object b) {
+        if (a == b) {
+            return 0;
+        } else if (a == null) {
+            return -1;
+        } else if (b == null) {
+            return 1;
+        } else if (a instanceof XMLGregorianCalendar && b instanceof XMLGregorianCalendar) {
+            return Long.compare(((XMLGregorianCalendar) a).toGregorianCalendar().getTimeInMillis(),
+                    ((XMLGregorianCalendar) b).toGregorianCalendar().getTimeInMillis());
+        } else if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        } else if (a instanceof String && b instanceof String) {
+            // VCD sorts strings case insensitively
+            return String.CASE_INSENSITIVE_ORDER.compare((String) a, (String) b);
+        } else if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.getClass().getName().compareTo(b.getClass().getName());
+    }
+}
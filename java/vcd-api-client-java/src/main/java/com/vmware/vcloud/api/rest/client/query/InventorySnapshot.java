@@ -0,0 +1,432 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.vmware.vcloud.api.rest.client.QueryResultFormat;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * An in-memory, indexed copy of the results of a query.
+ * <P>
+ * The snapshot loads all records of a query via {@link Query#stream()} and maintains a hash index
+ * for each of the configured fields, so that repeated lookups by, for example, org, vdc, container
+ * or status are answered without contacting VCD:
+ *
+ * <pre>
+ *     final InventorySnapshot&lt;QueryResultVMRecordType&gt; vms =
+ *             new InventorySnapshot&lt;&gt;(
+ *                     () -&gt; vcdClient.getQuery("adminVM", QueryResultVMRecordType.class),
+ *                     "org", "vdc", "container", "name", "status");
+ *     vms.refresh();
+ *     final List&lt;QueryResultVMRecordType&gt; poweredOff = vms.findBy("status", "POWERED_OFF");
+ * </pre>
+ *
+ * Records are keyed by their id, which VCD only returns in the
+ * {@link QueryResultFormat#ID_RECORDS ID_RECORDS} format; records of queries run in another format
+ * are keyed by their href instead.
+ * <P>
+ * {@link #refresh()} reloads the full result set but only touches index entries of records that
+ * were added, changed or removed. {@link #refresh(String)} re-queries just the records matching
+ * the specified filter (for example the members of a single vdc) and merges them into the
+ * snapshot; the filter narrows, rather than replaces, any filter of the snapshot's query.
+ * <P>
+ * Instances are safe for use by multiple threads; lookups are not blocked by a refresh in progress
+ * until the refreshed results are merged.
+ *
+ * @param <T>
+ *            query result record type
+ * @since 9.1
+ */
+public class InventorySnapshot<T extends QueryResultRecordType> {
+    // Rough per-object costs used by estimateMemoryFootprint() on a 64-bit JVM with compressed oops
+    private static final long OBJECT_OVERHEAD_BYTES = 16L;
+    private static final long REFERENCE_BYTES = 4L;
+    private static final long MAP_ENTRY_BYTES = 48L;
+    private static final long CALENDAR_BYTES = 120L;
+
+    private static final Map<Class<?>, List<Field>> INSTANCE_FIELDS = new ConcurrentHashMap<>();
+
+    private final Supplier<Query<T>> querySupplier;
+    private final List<String> indexedFields;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, T> records = new HashMap<>();
+    private final Map<String, Map<Object, Set<String>>> indexes = new HashMap<>();
+
+    private volatile long lastRefreshMillis = -1L;
+
+    /**
+     * Creates an empty snapshot. Call {@link #refresh()} to populate it.
+     *
+     * @param querySupplier
+     *            supplies a freshly configured {@link Query} for every load; the supplied query may
+     *            carry a filter and field projection, but should not set a page. It should set the
+     *            {@link QueryResultFormat#ID_RECORDS ID_RECORDS} format for records to be keyed by
+     *            id.
+     * @param indexedFields
+     *            names of the query fields to maintain lookup indexes for
+     */
+    public InventorySnapshot(final Supplier<Query<T>> querySupplier, final String... indexedFields) {
+        this.querySupplier = Objects.requireNonNull(querySupplier);
+        this.indexedFields = Collections.unmodifiableList(Arrays.asList(indexedFields));
+        for (final String field : indexedFields) {
+            indexes.put(field, new HashMap<>());
+        }
+    }
+
+    /**
+     * Convenience constructor for a snapshot of all records of the specified query type, keyed by
+     * id.
+     */
+    public InventorySnapshot(final VcdClient vcdClient, final String queryTypeName,
+            final Class<T> queryResultClass, final String... indexedFields) {
+        this(() -> vcdClient.getQuery(queryTypeName, queryResultClass)
+                .setQueryResultFormat(QueryResultFormat.ID_RECORDS)
+                .setPageSize(Query.DEFAULT_MAX_PAGE_SIZE), indexedFields);
+    }
+
+    /**
+     * Reloads all records of the query and applies the differences to the snapshot.
+     */
+    public void refresh() {
+        final Map<String, T> loaded = load(querySupplier.get());
+
+        lock.writeLock().lock();
+        try {
+            final Set<String> removedIds = new HashSet<>(records.keySet());
+            removedIds.removeAll(loaded.keySet());
+            removedIds.forEach(this::remove);
+            loaded.values().forEach(this::upsert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        lastRefreshMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Re-queries only the records matching the specified filter and merges them into the snapshot.
+     * <P>
+     * Records that no longer exist in VCD are not detected by this method; use {@link #refresh()}
+     * periodically to reconcile deletions.
+     *
+     * @param filter
+     *            URL encoded query filter selecting the records to reload; combined with the
+     *            filter of the snapshot's query, so that only records within the snapshot's scope
+     *            are reloaded
+     */
+    public void refresh(final String filter) {
+        final Query<T> query = querySupplier.get();
+        final String scope = query.getFilter();
+        final Map<String, T> loaded = load(query.setFilter(
+                StringUtils.isEmpty(scope) ? filter : "(" + scope + ");(" + filter + ")"));
+
+        lock.writeLock().lock();
+        try {
+            loaded.values().forEach(this::upsert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Map<String, T> load(final Query<T> query) {
+        return query.stream().collect(Collectors.toMap(
+                InventorySnapshot::keyOf,
+                Function.identity(),
+                (existing, duplicate) -> duplicate,
+                HashMap::new));
+    }
+
+    /**
+     * @return the record's id, or its href if the query was not run in the
+     *         {@link QueryResultFormat#ID_RECORDS ID_RECORDS} format
+     */
+    private static String keyOf(final QueryResultRecordType record) {
+        return record.getId() != null ? record.getId() : record.getHref();
+    }
+
+    private void upsert(final T record) {
+        final String key = keyOf(record);
+        final T previous = records.put(key, record);
+        for (final String field : indexedFields) {
+            final Object newValue = indexValue(record, field);
+            if (previous != null) {
+                final Object oldValue = indexValue(previous, field);
+                if (Objects.equals(oldValue, newValue)) {
+                    continue;
+                }
+                unindex(field, oldValue, key);
+            }
+            indexes.get(field).computeIfAbsent(newValue, v -> new LinkedHashSet<>()).add(key);
+        }
+    }
+
+    private void remove(final String id) {
+        final T previous = records.remove(id);
+        if (previous == null) {
+            return;
+        }
+        for (final String field : indexedFields) {
+            unindex(field, indexValue(previous, field), id);
+        }
+    }
+
+    private void unindex(final String field, final Object value, final String id) {
+        final Map<Object, Set<String>> index = indexes.get(field);
+        final Set<String> ids = index.get(value);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+
+    private static Object indexValue(final Object record, final String field) {
+        final Object value = RecordFields.get(record, field);
+        // XMLGregorianCalendar's equality is too strict to be useful for lookups
+        return value instanceof XMLGregorianCalendar
+                ? ((XMLGregorianCalendar) value).toGregorianCalendar().getTimeInMillis()
+                : value;
+    }
+
+    /**
+     * @param id
+     *            id of the record, or its href if the snapshot's query is not run in the
+     *            {@link QueryResultFormat#ID_RECORDS ID_RECORDS} format
+     * @return the record with the specified id or {@code null} if it is not in the snapshot
+     */
+    public T get(final String id) {
+        lock.readLock().lock();
+        try {
+            return records.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up records by the value of an indexed field.
+     *
+     * @param field
+     *            one of the fields this snapshot was configured to index
+     * @param value
+     *            value to match; {@code null} matches records without a value for the field
+     * @return matching records, in load order; an empty list if none match
+     * @throws IllegalArgumentException
+     *             if the field is not indexed
+     */
+    public List<T> findBy(final String field, final Object value) {
+        lock.readLock().lock();
+        try {
+            return resolve(lookup(field, value));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up records matching all of the specified indexed field values.
+     *
+     * @param criteria
+     *            map of indexed field names to the values to match
+     * @return matching records; an empty list if none match
+     * @throws IllegalArgumentException
+     *             if any of the fields is not indexed
+     */
+    public List<T> findBy(final Map<String, ?> criteria) {
+        lock.readLock().lock();
+        try {
+            Set<String> matches = null;
+            for (final Map.Entry<String, ?> criterion : criteria.entrySet()) {
+                final Set<String> ids = lookup(criterion.getKey(), criterion.getValue());
+                if (matches == null) {
+                    matches = new LinkedHashSet<>(ids);
+                } else {
+                    matches.retainAll(ids);
+                }
+                if (matches.isEmpty()) {
+                    break;
+                }
+            }
+            return matches == null ? resolve(records.keySet()) : resolve(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the distinct values currently present for an indexed field
+     */
+    public Set<Object> distinctValues(final String field) {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(index(field).keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<String> lookup(final String field, final Object value) {
+        final Object key = value instanceof XMLGregorianCalendar
+                ? ((XMLGregorianCalendar) value).toGregorianCalendar().getTimeInMillis()
+                : value;
+        return index(field).getOrDefault(key, Collections.emptySet());
+    }
+
+    private Map<Object, Set<String>> index(final String field) {
+        final Map<Object, Set<String>> index = indexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("Field '" + field + "' is not indexed; indexed fields: "
+                    + indexedFields);
+        }
+        return index;
+    }
+
+    private List<T> resolve(final Collection<String> ids) {
+        final List<T> result = new ArrayList<>(ids.size());
+        for (final String id : ids) {
+            result.add(records.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * @return all records in the snapshot
+     */
+    public List<T> getAll() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(records.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of records in the snapshot
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the time (as per {@link System#currentTimeMillis()}) of the last full
+     *         {@link #refresh()}, or {@code -1} if the snapshot has never been loaded
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * Estimates the heap retained by this snapshot's records and indexes.
+     * <P>
+     * The estimate walks the declared fields of each record (one level deep, plus the record's
+     * other attributes) and assumes a 64-bit JVM with compressed references. It is meant for
+     * capacity monitoring, not as an exact measurement.
+     *
+     * @return estimated size in bytes
+     */
+    public long estimateMemoryFootprint() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0L;
+            for (final T record : records.values()) {
+                bytes += MAP_ENTRY_BYTES + estimateRecord(record);
+            }
+            for (final Map<Object, Set<String>> index : indexes.values()) {
+                for (final Set<String> ids : index.values()) {
+                    bytes += MAP_ENTRY_BYTES + OBJECT_OVERHEAD_BYTES + ids.size() * MAP_ENTRY_BYTES;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long estimateRecord(final Object record) {
+        long bytes = OBJECT_OVERHEAD_BYTES;
+        for (final Field field : instanceFields(record.getClass())) {
+            bytes += REFERENCE_BYTES;
+            final Object value;
+            try {
+                value = field.get(record);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            bytes += estimateValue(value);
+        }
+        if (record instanceof QueryResultRecordType) {
+            for (final Map.Entry<?, String> attribute : ((QueryResultRecordType) record).getOtherAttributes().entrySet()) {
+                bytes += MAP_ENTRY_BYTES + estimateValue(attribute.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimateValue(final Object value) {
+        if (value == null) {
+            return 0L;
+        } else if (value instanceof String) {
+            return OBJECT_OVERHEAD_BYTES * 2 + ((String) value).length();
+        } else if (value instanceof XMLGregorianCalendar) {
+            return CALENDAR_BYTES;
+        } else if (value instanceof Collection) {
+            return OBJECT_OVERHEAD_BYTES * 2 + ((Collection<?>) value).size() * REFERENCE_BYTES;
+        } else if (value instanceof Map) {
+            return OBJECT_OVERHEAD_BYTES * 3 + ((Map<?, ?>) value).size() * MAP_ENTRY_BYTES;
+        }
+        return OBJECT_OVERHEAD_BYTES;
+    }
+
+    private static List<Field> instanceFields(final Class<?> recordClass) {
+        return INSTANCE_FIELDS.computeIfAbsent(recordClass, c -> {
+            final List<Field> fields = new ArrayList<>();
+            for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+                for (final Field field : k.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            return fields;
+        });
+    }
+}
@@ -0,0 +1,749 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * Client-side grouping, aggregation and multi-key sorting of query results in bounded memory.
+ * <P>
+ * VCD queries sort by a single field and cannot group. This class fills the gap for result sets
+ * too large to collect in the heap: records are first {@link #project(Stream, List) projected}
+ * to {@link Row}s of the fields of interest, and rows are then {@link #sort(Stream, List) sorted}
+ * or {@link #groupBy(Stream, List, List) grouped}. At most {@code maxRowsInMemory} rows (or
+ * groups) are held in memory; beyond that, sorted runs are spilled to temporary files and merged
+ * back while the result is consumed. At most {@value #MAX_MERGE_FAN_IN} runs are read at a time;
+ * more are first merged into fewer, larger runs.
+ *
+ * <pre>
+ *     final QueryAggregator aggregator = new QueryAggregator(tempDirectory, 100_000);
+ *     try (Stream&lt;Row&gt; perVdc = aggregator.groupBy(
+ *             QueryAggregator.project(vmQuery.stream(), Arrays.asList("org", "vdc", "memoryMB")),
+ *             Arrays.asList("org", "vdc"),
+ *             Arrays.asList(Aggregate.count(), Aggregate.sum("memoryMB"), Aggregate.max("memoryMB")))) {
+ *         aggregator.sort(perVdc, Arrays.asList(SortKey.desc("sum(memoryMB)"), SortKey.asc("vdc")))
+ *                 .forEach(row -&gt; ...);
+ *     }
+ * </pre>
+ *
+ * Returned streams must be closed to delete their temporary files.
+ *
+ * @since 9.1
+ */
+public class QueryAggregator {
+
+    /**
+     * Projected values of a record, or a group's key and aggregates. Values are {@code null},
+     * {@link String}, {@link Long}, {@link Double} or {@link Boolean}; integral fields are widened
+     * to {@code Long}, floating point fields to {@code Double}, dates to epoch milliseconds and
+     * other values to their string form.
+     */
+    public static final class Row {
+        private final List<String> columns;
+        private final Object[] values;
+
+        Row(final List<String> columns, final Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public Object get(final String column) {
+            return values[indexOf(columns, column)];
+        }
+
+        public Object get(final int index) {
+            return values[index];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(columns.get(i)).append('=').append(values[i]);
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    /**
+     * A sort key: a column and a direction. {@code null} values sort first in ascending order.
+     */
+    public static final class SortKey {
+        private final String column;
+        private final boolean ascending;
+
+        private SortKey(final String column, final boolean ascending) {
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        public static SortKey asc(final String column) {
+            return new SortKey(column, true);
+        }
+
+        public static SortKey desc(final String column) {
+            return new SortKey(column, false);
+        }
+    }
+
+    /**
+     * An aggregate computed per group. Its output column is named {@code count} or
+     * {@code function(field)}, for example {@code sum(memoryMB)}.
+     */
+    public static final class Aggregate {
+        private enum Kind {
+            COUNT, SUM, MIN, MAX
+        }
+
+        private final Kind kind;
+        private final String field;
+
+        private Aggregate(final Kind kind, final String field) {
+            this.kind = kind;
+            this.field = field;
+        }
+
+        /**
+         * @return an aggregate counting the rows of each group
+         */
+        public static Aggregate count() {
+            return new Aggregate(Kind.COUNT, null);
+        }
+
+        /**
+         * @return an aggregate summing the non-null values of a numeric field
+         */
+        public static Aggregate sum(final String field) {
+            return new Aggregate(Kind.SUM, field);
+        }
+
+        public static Aggregate min(final String field) {
+            return new Aggregate(Kind.MIN, field);
+        }
+
+        public static Aggregate max(final String field) {
+            return new Aggregate(Kind.MAX, field);
+        }
+
+        public String getColumnName() {
+            return kind == Kind.COUNT ? "count" : kind.name().toLowerCase() + "(" + field + ")";
+        }
+
+        Object initial(final Row row, final int fieldIndex) {
+            return kind == Kind.COUNT ? Long.valueOf(1) : row.values[fieldIndex];
+        }
+
+        /**
+         * Combines two partial results of this aggregate.
+         */
+        Object combine(final Object a, final Object b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            }
+            switch (kind) {
+            case COUNT:
+                return (Long) a + (Long) b;
+            case SUM:
+                if (a instanceof Long && b instanceof Long) {
+                    return (Long) a + (Long) b;
+                }
+                return toDouble(a) + toDouble(b);
+            case MIN:
+                return compareValues(a, b) <= 0 ? a : b;
+            default:
+                return compareValues(a, b) >= 0 ? a : b;
+            }
+        }
+
+        private static double toDouble(final Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            throw new IllegalArgumentException("Cannot sum non-numeric value '" + value + "'");
+        }
+    }
+
+    // Runs read at once by a merge, each through a buffer of RUN_BUFFER_BYTES
+    private static final int MAX_MERGE_FAN_IN = 64;
+    private static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+    private final Path tempDirectory;
+    private final int maxRowsInMemory;
+
+    /**
+     * @param tempDirectory
+     *            directory for spilled runs
+     * @param maxRowsInMemory
+     *            maximum number of rows, or groups, to hold in memory per operation
+     */
+    public QueryAggregator(final Path tempDirectory, final int maxRowsInMemory) {
+        if (tempDirectory == null) {
+            throw new IllegalArgumentException("tempDirectory");
+        }
+        if (maxRowsInMemory < 1) {
+            throw new IllegalArgumentException("maxRowsInMemory");
+        }
+        this.tempDirectory = tempDirectory;
+        this.maxRowsInMemory = maxRowsInMemory;
+    }
+
+    /**
+     * Projects records, such as those of {@link Query#stream()}, to rows of the specified fields.
+     * Records are converted as they are consumed.
+     */
+    public static Stream<Row> project(final Stream<? extends QueryResultRecordType> records,
+            final List<String> fields) {
+        final List<String> columns = Collections.unmodifiableList(new ArrayList<>(fields));
+        final Map<Class<?>, List<Function<Object, Object>>> accessorsByClass = new HashMap<>();
+        return records.map(record -> {
+            final List<Function<Object, Object>> accessors = accessorsByClass.computeIfAbsent(record.getClass(), c -> {
+                final List<Function<Object, Object>> list = new ArrayList<>(columns.size());
+                for (final String field : columns) {
+                    list.add(RecordFields.accessor(c, field));
+                }
+                return list;
+            });
+            final Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = normalize(accessors.get(i).apply(record));
+            }
+            return new Row(columns, values);
+        });
+    }
+
+    /**
+     * Sorts rows by the specified keys, spilling sorted runs to disk as needed.
+     *
+     * @param rows
+     *            rows to sort, all with the same columns
+     * @param sortKeys
+     *            keys in order of significance
+     * @return sorted rows; must be closed to delete temporary files
+     * @throws UncheckedIOException
+     *             if a run cannot be written or read
+     */
+    public Stream<Row> sort(final Stream<Row> rows, final List<SortKey> sortKeys) {
+        final SpillingSorter sorter = new SpillingSorter();
+        final Iterator<Row> input = rows.iterator();
+        final List<Row> buffer = new ArrayList<>();
+        Comparator<Row> comparator = null;
+        List<String> columns = null;
+
+        try {
+            while (input.hasNext()) {
+                final Row row = input.next();
+                if (comparator == null) {
+                    columns = row.columns;
+                    comparator = comparator(columns, sortKeys);
+                }
+                buffer.add(row);
+                if (buffer.size() >= maxRowsInMemory) {
+                    buffer.sort(comparator);
+                    sorter.spill(buffer);
+                    buffer.clear();
+                }
+            }
+        } catch (RuntimeException e) {
+            sorter.close();
+            throw e;
+        }
+
+        if (comparator == null) {
+            return Stream.empty();
+        }
+        buffer.sort(comparator);
+        return sorter.merged(buffer, columns, comparator);
+    }
+
+    /**
+     * Groups rows by the specified columns and computes aggregates per group. Groups are returned
+     * in ascending order of their key columns; use {@link #sort(Stream, List)} to order them
+     * differently.
+     *
+     * @param rows
+     *            rows to group, all with the same columns
+     * @param groupColumns
+     *            columns forming the group key
+     * @param aggregates
+     *            aggregates to compute
+     * @return one row per group, with the key columns followed by the aggregates' columns; must
+     *         be closed to delete temporary files
+     * @throws UncheckedIOException
+     *             if a run cannot be written or read
+     */
+    public Stream<Row> groupBy(final Stream<Row> rows, final List<String> groupColumns,
+            final List<Aggregate> aggregates) {
+        final List<String> outputColumns = new ArrayList<>(groupColumns);
+        for (final Aggregate aggregate : aggregates) {
+            outputColumns.add(aggregate.getColumnName());
+        }
+        final List<String> columns = Collections.unmodifiableList(outputColumns);
+        final List<SortKey> keyOrder = new ArrayList<>();
+        for (final String column : groupColumns) {
+            keyOrder.add(SortKey.asc(column));
+        }
+        final Comparator<Row> keyComparator = comparator(columns, keyOrder);
+
+        final SpillingSorter sorter = new SpillingSorter();
+        final Map<List<Object>, Object[]> groups = new HashMap<>();
+        int[] keyIndexes = null;
+        int[] aggregateFieldIndexes = null;
+
+        try {
+            final Iterator<Row> input = rows.iterator();
+            while (input.hasNext()) {
+                final Row row = input.next();
+                if (keyIndexes == null) {
+                    keyIndexes = indexesOf(row.columns, groupColumns);
+                    aggregateFieldIndexes = new int[aggregates.size()];
+                    for (int i = 0; i < aggregates.size(); i++) {
+                        final String field = aggregates.get(i).field;
+                        aggregateFieldIndexes[i] = field == null ? -1 : indexOf(row.columns, field);
+                    }
+                }
+
+                final Object[] key = new Object[keyIndexes.length];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = row.values[keyIndexes[i]];
+                }
+                final Object[] values = new Object[aggregates.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = aggregates.get(i).initial(row, aggregateFieldIndexes[i]);
+                }
+                groups.merge(Arrays.asList(key), values, (existing, added) -> combine(aggregates, existing, added));
+
+                if (groups.size() >= maxRowsInMemory) {
+                    sorter.spill(toSortedRows(groups, columns, keyComparator));
+                    groups.clear();
+                }
+            }
+        } catch (RuntimeException e) {
+            sorter.close();
+            throw e;
+        }
+
+        final Stream<Row> merged = sorter.merged(toSortedRows(groups, columns, keyComparator), columns, keyComparator);
+        final int keyLength = groupColumns.size();
+        final Iterator<Row> combining = new CombiningIterator(merged.iterator(), keyComparator, keyLength, aggregates);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(combining, Spliterator.ORDERED), false)
+                .onClose(merged::close);
+    }
+
+    private static Object[] combine(final List<Aggregate> aggregates, final Object[] existing, final Object[] added) {
+        for (int i = 0; i < existing.length; i++) {
+            existing[i] = aggregates.get(i).combine(existing[i], added[i]);
+        }
+        return existing;
+    }
+
+    private static List<Row> toSortedRows(final Map<List<Object>, Object[]> groups, final List<String> columns,
+            final Comparator<Row> keyComparator) {
+        final List<Row> result = new ArrayList<>(groups.size());
+        for (final Map.Entry<List<Object>, Object[]> group : groups.entrySet()) {
+            final List<Object> key = group.getKey();
+            final Object[] values = new Object[columns.size()];
+            for (int i = 0; i < key.size(); i++) {
+                values[i] = key.get(i);
+            }
+            System.arraycopy(group.getValue(), 0, values, key.size(), group.getValue().length);
+            result.add(new Row(columns, values));
+        }
+        result.sort(keyComparator);
+        return result;
+    }
+
+    /**
+     * Combines consecutive rows with equal keys from a key-ordered stream of partial groups.
+     */
+    private static final class CombiningIterator implements Iterator<Row> {
+        private final Iterator<Row> sorted;
+        private final Comparator<Row> keyComparator;
+        private final int keyLength;
+        private final List<Aggregate> aggregates;
+        private Row pending;
+
+        CombiningIterator(final Iterator<Row> sorted, final Comparator<Row> keyComparator, final int keyLength,
+                final List<Aggregate> aggregates) {
+            this.sorted = sorted;
+            this.keyComparator = keyComparator;
+            this.keyLength = keyLength;
+            this.aggregates = aggregates;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending != null || sorted.hasNext();
+        }
+
+        @Override
+        public Row next() {
+            Row current = pending != null ? pending : sorted.next();
+            pending = null;
+            while (sorted.hasNext()) {
+                final Row candidate = sorted.next();
+                if (keyComparator.compare(current, candidate) != 0) {
+                    pending = candidate;
+                    break;
+                }
+                final Object[] values = current.values.clone();
+                for (int i = 0; i < aggregates.size(); i++) {
+                    values[keyLength + i] =
+                            aggregates.get(i).combine(values[keyLength + i], candidate.values[keyLength + i]);
+                }
+                current = new Row(current.columns, values);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Writes sorted runs to temporary files and merges them with a final in-memory run.
+     */
+    private final class SpillingSorter {
+        private final List<Path> runs = new ArrayList<>();
+
+        void spill(final List<Row> sortedRows) {
+            try {
+                runs.add(writeRun(sortedRows.iterator()));
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Path writeRun(final Iterator<Row> sortedRows) throws IOException {
+            final Path run = Files.createTempFile(tempDirectory, "query-aggregator-", ".run");
+            try (final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER_BYTES))) {
+                while (sortedRows.hasNext()) {
+                    writeRow(out, sortedRows.next());
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(run);
+                throw e;
+            }
+            return run;
+        }
+
+        Stream<Row> merged(final List<Row> lastRun, final List<String> columns, final Comparator<Row> comparator) {
+            if (runs.isEmpty()) {
+                return lastRun.stream();
+            }
+            final List<Iterator<Row>> sources = new ArrayList<>();
+            final List<DataInputStream> inputs = new ArrayList<>();
+            try {
+                // Leave room for the last run, which is merged from memory
+                while (runs.size() >= MAX_MERGE_FAN_IN) {
+                    mergeRuns(columns, comparator);
+                }
+                for (final Path run : runs) {
+                    inputs.add(openRun(run));
+                    sources.add(new RunIterator(inputs.get(inputs.size() - 1), columns));
+                }
+            } catch (IOException e) {
+                closeAll(inputs);
+                close();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                closeAll(inputs);
+                close();
+                throw e;
+            }
+            sources.add(lastRun.iterator());
+
+            final Iterator<Row> merge = new MergeIterator(sources, comparator);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED), false)
+                    .onClose(() -> {
+                        closeAll(inputs);
+                        close();
+                    });
+        }
+
+        /**
+         * Merges the oldest {@value #MAX_MERGE_FAN_IN} runs into one, which takes their place at
+         * the end of the runs.
+         */
+        private void mergeRuns(final List<String> columns, final Comparator<Row> comparator) throws IOException {
+            final List<Path> group = new ArrayList<>(runs.subList(0, MAX_MERGE_FAN_IN));
+            final List<Iterator<Row>> sources = new ArrayList<>(group.size());
+            final List<DataInputStream> inputs = new ArrayList<>(group.size());
+            try {
+                for (final Path run : group) {
+                    inputs.add(openRun(run));
+                    sources.add(new RunIterator(inputs.get(inputs.size() - 1), columns));
+                }
+                runs.add(writeRun(new MergeIterator(sources, comparator)));
+            } finally {
+                closeAll(inputs);
+            }
+            runs.subList(0, group.size()).clear();
+            for (final Path run : group) {
+                Files.deleteIfExists(run);
+            }
+        }
+
+        private DataInputStream openRun(final Path run) throws IOException {
+            return new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_BUFFER_BYTES));
+        }
+
+        void close() {
+            for (final Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    // Best effort; the file is in the temporary directory
+                }
+            }
+            runs.clear();
+        }
+
+        private void closeAll(final List<DataInputStream> inputs) {
+            for (final DataInputStream in : inputs) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    /**
+     * K-way merge of sorted sources.
+     */
+    private static final class MergeIterator implements Iterator<Row> {
+        private final PriorityQueue<Head> heads;
+
+        private static final class Head {
+            private final Row row;
+            private final Iterator<Row> source;
+
+            Head(final Row row, final Iterator<Row> source) {
+                this.row = row;
+                this.source = source;
+            }
+        }
+
+        MergeIterator(final List<Iterator<Row>> sources, final Comparator<Row> comparator) {
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> comparator.compare(a.row, b.row));
+            for (final Iterator<Row> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head(source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Row next() {
+            final Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            if (head.source.hasNext()) {
+                heads.add(new Head(head.source.next(), head.source));
+            }
+            return head.row;
+        }
+    }
+
+    private static final class RunIterator implements Iterator<Row> {
+        private final DataInputStream in;
+        private final List<String> columns;
+        private Row next;
+        private boolean done;
+
+        RunIterator(final DataInputStream in, final List<String> columns) {
+            this.in = in;
+            this.columns = columns;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = readRow(in, columns);
+                } catch (EOFException e) {
+                    done = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Row result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+
+    private static void writeRow(final DataOutputStream out, final Row row) throws IOException {
+        for (final Object value : row.values) {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                out.writeByte(STRING);
+                // Unlike writeUTF(), not limited to 65535 bytes
+                final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static Row readRow(final DataInputStream in, final List<String> columns) throws IOException {
+        final Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            final byte type = in.readByte();
+            switch (type) {
+            case NULL:
+                break;
+            case LONG:
+                values[i] = in.readLong();
+                break;
+            case DOUBLE:
+                values[i] = in.readDouble();
+                break;
+            case BOOLEAN:
+                values[i] = in.readBoolean();
+                break;
+            case STRING:
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                values[i] = new String(bytes, StandardCharsets.UTF_8);
+                break;
+            default:
+                throw new IOException("Corrupt run file: unknown value type " + type);
+            }
+        }
+        return new Row(columns, values);
+    }
+
+    private static Object normalize(final Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Long || value instanceof Double) {
+            return value;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        } else if (value instanceof XMLGregorianCalendar) {
+            return ((XMLGregorianCalendar) value).toGregorianCalendar().getTimeInMillis();
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+
+    private static Comparator<Row> comparator(final List<String> columns, final List<SortKey> sortKeys) {
+        Comparator<Row> comparator = (a, b) -> 0;
+        for (final SortKey sortKey : sortKeys) {
+            final int index = indexOf(columns, sortKey.column);
+            final Comparator<Row> byColumn = (a, b) -> compareValues(a.values[index], b.values[index]);
+            comparator = comparator.thenComparing(sortKey.ascending ? byColumn : byColumn.reversed());
+        }
+        return comparator;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(final Object a, final Object b) {
+        if (a == b) {
+            return 0;
+        } else if (a == null) {
+            return -1;
+        } else if (b == null) {
+            return 1;
+        } else if (a instanceof Number && b instanceof Number) {
+            if (a instanceof Long && b instanceof Long) {
+                return Long.compare((Long) a, (Long) b);
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        } else if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.getClass().getName().compareTo(b.getClass().getName());
+    }
+
+    private static int[] indexesOf(final List<String> columns, final List<String> names) {
+        final int[] indexes = new int[names.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = indexOf(columns, names.get(i));
+        }
+        return indexes;
+    }
+
+    private static int indexOf(final List<String> columns, final String column) {
+        final int index = columns.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column '" + column + "'; columns: " + columns);
+        }
+        return index;
+    }
+}
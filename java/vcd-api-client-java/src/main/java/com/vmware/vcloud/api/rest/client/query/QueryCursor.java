@@ -0,0 +1,505 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.ws.rs.ProcessingException;
+
+import com.vmware.vcloud.api.rest.client.QueryResultFormat;
+import com.vmware.vcloud.api.rest.client.VcdClient;
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.client.VcdClient.QueryListPage;
+import com.vmware.vcloud.api.rest.client.VcdErrorException;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
+
+/**
+ * A serializable position within the results of a query, which allows a long running iteration
+ * over a query's results to be checkpointed and resumed.
+ * <P>
+ * A cursor captures the definition of the query (its type or packaged query path, result class,
+ * format, filter, fields, sort order and page size) together with the page being read, the index
+ * within that page and the id of the last record returned. It can be written to disk with
+ * {@link #checkpoint(Path)} at any point during iteration, or automatically every few pages with
+ * {@link #setCheckpoint(Path, int)}, and {@link #restore(Path, Class) restored} in another process:
+ *
+ * <pre>
+ *     final QueryCursor&lt;QueryResultVMRecordType&gt; cursor = Files.exists(checkpoint)
+ *             ? QueryCursor.restore(checkpoint, QueryResultVMRecordType.class)
+ *             : QueryCursor.forQuery("adminVM", QueryResultVMRecordType.class).setSortAsc("name");
+ *     cursor.setCheckpoint(checkpoint, 10);
+ *     cursor.stream(vcdClient).forEach(vm -&gt; ...);
+ *     Files.delete(checkpoint);
+ * </pre>
+ *
+ * Pages are fetched one at a time by page number. A page fetch failing with a transient error (an
+ * I/O failure, an HTTP 5xx or 429 response) is retried with exponential backoff. On resumption the
+ * page being read is fetched again and iteration continues just after the last returned record;
+ * if that record has moved within the page (because records were added or removed in the
+ * meantime) its new position is used. A stable {@link #setSortAsc(String) sort order} makes this
+ * reliable.
+ * <P>
+ * Cursors are not thread-safe.
+ *
+ * @param <T>
+ *            query result type
+ * @since 9.1
+ */
+public class QueryCursor<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000L;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000L;
+
+    // Query definition
+    private final String queryTypeName;
+    private final String packagedQueryPath;
+    private final Class<T> queryResultClass;
+    private QueryResultFormat queryResultFormat;
+    private String filter;
+    private List<String> fields;
+    private String sortAsc;
+    private String sortDesc;
+    private int pageSize = Query.DEFAULT_MAX_PAGE_SIZE;
+
+    // Position
+    private int page = 1;
+    private int indexInPage;
+    private String lastSeenId;
+    private long recordsRead;
+    private boolean exhausted;
+
+    // Retry policy
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    // Checkpointing is configured per run and not part of the persisted state
+    private transient Path checkpointFile;
+    private transient int checkpointIntervalPages;
+
+    private QueryCursor(final String queryTypeName, final String packagedQueryPath, final Class<T> queryResultClass) {
+        if (queryResultClass == null) {
+            throw new IllegalArgumentException("queryResultClass");
+        }
+        this.queryTypeName = queryTypeName;
+        this.packagedQueryPath = packagedQueryPath;
+        this.queryResultClass = queryResultClass;
+    }
+
+    /**
+     * Creates a cursor positioned at the start of the results of a typed query.
+     *
+     * @see VcdClient#getQuery(String, Class)
+     */
+    public static <T> QueryCursor<T> forQuery(final String queryTypeName, final Class<T> queryResultClass) {
+        if (queryTypeName == null) {
+            throw new IllegalArgumentException("queryTypeName");
+        }
+        return new QueryCursor<>(queryTypeName, null, queryResultClass);
+    }
+
+    /**
+     * Creates a cursor positioned at the start of the results of a packaged query.
+     *
+     * @see VcdClient#getPackagedQuery(String, Class)
+     */
+    public static <T> QueryCursor<T> forPackagedQuery(final String packagedQueryPath,
+            final Class<T> queryResultClass) {
+        if (packagedQueryPath == null) {
+            throw new IllegalArgumentException("packagedQueryPath");
+        }
+        return new QueryCursor<>(null, packagedQueryPath, queryResultClass);
+    }
+
+    /**
+     * Sets the query result format. Record queries default to
+     * {@link QueryResultFormat#ID_RECORDS}, whose ids let a resumed cursor find the last record it
+     * returned.
+     *
+     * @see Query#setQueryResultFormat(QueryResultFormat)
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setQueryResultFormat(final QueryResultFormat queryResultFormat) {
+        checkNotStarted();
+        this.queryResultFormat = queryResultFormat;
+        return this;
+    }
+
+    /**
+     * @see Query#setFilter(String)
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setFilter(final String filter) {
+        checkNotStarted();
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @see Query#setFields(java.util.Collection)
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setFields(final List<String> fields) {
+        checkNotStarted();
+        this.fields = fields == null ? null : Collections.unmodifiableList(new ArrayList<>(fields));
+        return this;
+    }
+
+    /**
+     * @see Query#setSortAsc(String)
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setSortAsc(final String fieldName) {
+        checkNotStarted();
+        this.sortAsc = fieldName;
+        return this;
+    }
+
+    /**
+     * @see Query#setSortDesc(String)
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setSortDesc(final String fieldName) {
+        checkNotStarted();
+        this.sortDesc = fieldName;
+        return this;
+    }
+
+    /**
+     * Sets the page size. Defaults to {@link Query#DEFAULT_MAX_PAGE_SIZE}, which is also the
+     * largest page size VCD returns; pages are numbered by this size, so it must not exceed it.
+     *
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setPageSize(final int pageSize) {
+        checkNotStarted();
+        if (pageSize < 1 || pageSize > Query.DEFAULT_MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Configures retries of failed page fetches. The delay between attempts starts at
+     * {@code initialBackoffMillis} and doubles with each attempt up to {@code maxBackoffMillis}.
+     *
+     * @param maxAttempts
+     *            maximum number of attempts to fetch a page; {@code 1} disables retries
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setRetryPolicy(final int maxAttempts, final long initialBackoffMillis,
+            final long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("backoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * Configures the cursor to {@link #checkpoint(Path) checkpoint} itself to the specified file
+     * after every {@code intervalPages} pages read, and once more when the results are exhausted.
+     *
+     * @param file
+     *            checkpoint file or {@code null} to disable automatic checkpoints
+     * @param intervalPages
+     *            number of pages between checkpoints
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryCursor<T> setCheckpoint(final Path file, final int intervalPages) {
+        if (intervalPages < 1) {
+            throw new IllegalArgumentException("intervalPages");
+        }
+        this.checkpointFile = file;
+        this.checkpointIntervalPages = intervalPages;
+        return this;
+    }
+
+    /**
+     * @return number of records returned by this cursor, including before any resumption
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return the id (or for references and records without an id, the href) of the last record
+     *         returned, or {@code null}
+     */
+    public String getLastSeenId() {
+        return lastSeenId;
+    }
+
+    /**
+     * @return {@code true} once all results have been returned
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Writes the cursor's query definition, position and retry policy to the specified file. The
+     * file is replaced atomically where the file system supports it, so a crash while
+     * checkpointing leaves the previous checkpoint intact.
+     *
+     * @throws IOException
+     *             if the checkpoint cannot be written
+     */
+    public void checkpoint(final Path file) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (final OutputStream out = Files.newOutputStream(temp);
+                    final ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+                objectOut.writeObject(this);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a cursor previously written by {@link #checkpoint(Path)}.
+     *
+     * @param file
+     *            checkpoint file
+     * @param queryResultClass
+     *            expected query result type
+     * @return the restored cursor, positioned where it was checkpointed
+     * @throws IOException
+     *             if the checkpoint cannot be read or is not a cursor over the expected type
+     */
+    public static <T> QueryCursor<T> restore(final Path file, final Class<T> queryResultClass) throws IOException {
+        final Object restored;
+        try (final InputStream in = Files.newInputStream(file);
+                final ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            restored = objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to restore query cursor from " + file, e);
+        }
+        if (!(restored instanceof QueryCursor)
+                || ((QueryCursor<?>) restored).queryResultClass != queryResultClass) {
+            throw new IOException(file + " does not contain a query cursor over " + queryResultClass.getName());
+        }
+        @SuppressWarnings("unchecked")
+        final QueryCursor<T> cursor = (QueryCursor<T>) restored;
+        return cursor;
+    }
+
+    /**
+     * Returns the remaining results, starting after the last record returned by this cursor.
+     * Iterating the returned stream advances this cursor.
+     *
+     * @param vcdClient
+     *            client to execute the query with
+     * @throws UncheckedIOException
+     *             from the stream's terminal operation if an automatic checkpoint fails
+     */
+    public Stream<T> stream(final VcdClient vcdClient) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator(vcdClient), Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    /**
+     * Returns an iterator over the remaining results; see {@link #stream(VcdClient)}.
+     */
+    public Iterator<T> iterator(final VcdClient vcdClient) {
+        return new CursorIterator(vcdClient);
+    }
+
+    private final class CursorIterator implements Iterator<T> {
+        private final VcdClient vcdClient;
+        private List<T> currentPage;
+        private long totalRecords;
+        private int pagesSinceCheckpoint;
+
+        CursorIterator(final VcdClient vcdClient) {
+            this.vcdClient = vcdClient;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (exhausted) {
+                return false;
+            }
+            if (currentPage == null) {
+                currentPage = fetchPage(page);
+                repositionAfterLastSeen();
+            }
+            while (indexInPage >= currentPage.size()) {
+                if (currentPage.isEmpty() || (long) (page - 1) * pageSize + currentPage.size() >= totalRecords) {
+                    exhausted = true;
+                    autoCheckpoint(true);
+                    return false;
+                }
+                page++;
+                indexInPage = 0;
+                currentPage = fetchPage(page);
+                if (++pagesSinceCheckpoint >= checkpointIntervalPages) {
+                    autoCheckpoint(false);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T record = currentPage.get(indexInPage++);
+            lastSeenId = idOf(record);
+            recordsRead++;
+            return record;
+        }
+
+        /**
+         * After (re)fetching the page being read, moves the index to just after the last record
+         * returned, which may have shifted since the cursor was checkpointed.
+         */
+        private void repositionAfterLastSeen() {
+            if (lastSeenId == null || indexInPage == 0) {
+                return;
+            }
+            if (indexInPage <= currentPage.size() && lastSeenId.equals(idOf(currentPage.get(indexInPage - 1)))) {
+                return;
+            }
+            for (int i = 0; i < currentPage.size(); i++) {
+                if (lastSeenId.equals(idOf(currentPage.get(i)))) {
+                    indexInPage = i + 1;
+                    return;
+                }
+            }
+        }
+
+        private List<T> fetchPage(final int pageNumber) {
+            long backoffMillis = initialBackoffMillis;
+            for (int attempt = 1;; attempt++) {
+                try {
+                    final ListIterator<QueryListPage<T>> pages = newQuery().setPage(pageNumber).execute();
+                    if (!pages.hasNext()) {
+                        return Collections.emptyList();
+                    }
+                    final QueryListPage<T> result = pages.next();
+                    totalRecords = result.getTotalItemCount();
+                    return result.getPage();
+                } catch (RuntimeException e) {
+                    if (attempt >= maxAttempts || !isTransient(e)) {
+                        throw e;
+                    }
+                }
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while retrying query page " + pageNumber, e);
+                }
+                backoffMillis = Math.min(maxBackoffMillis, backoffMillis * 2);
+            }
+        }
+
+        private Query<T> newQuery() {
+            final Query<T> query = (queryTypeName != null)
+                    ? vcdClient.getQuery(queryTypeName, queryResultClass)
+                    : vcdClient.getPackagedQuery(packagedQueryPath, queryResultClass);
+            query.setPageSize(pageSize);
+            if (queryResultFormat != null) {
+                query.setQueryResultFormat(queryResultFormat);
+            } else if (QueryResultRecordType.class.isAssignableFrom(queryResultClass)) {
+                query.setQueryResultFormat(QueryResultFormat.ID_RECORDS);
+            }
+            if (filter != null) {
+                query.setFilter(filter);
+            }
+            if (fields != null) {
+                query.setFields(fields);
+            }
+            if (sortAsc != null) {
+                query.setSortAsc(sortAsc);
+            }
+            if (sortDesc != null) {
+                query.setSortDesc(sortDesc);
+            }
+            return query;
+        }
+
+        private void autoCheckpoint(final boolean force) {
+            if (checkpointFile == null || (!force && pagesSinceCheckpoint == 0)) {
+                return;
+            }
+            pagesSinceCheckpoint = 0;
+            try {
+                checkpoint(checkpointFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static boolean isTransient(final RuntimeException e) {
+        if (e instanceof ProcessingException) {
+            return true;
+        }
+        if (e instanceof VcdErrorException) {
+            final int status = ((VcdErrorException) e).getHttpStatusCode();
+            return status >= 500 || status == 429;
+        }
+        return false;
+    }
+
+    private static String idOf(final Object record) {
+        if (record instanceof QueryResultRecordType) {
+            final QueryResultRecordType queryResultRecord = (QueryResultRecordType) record;
+            // Records only carry an id in the ID_RECORDS format
+            return queryResultRecord.getId() != null ? queryResultRecord.getId() : queryResultRecord.getHref();
+        } else if (record instanceof ReferenceType) {
+            return ((ReferenceType) record).getHref();
+        }
+        return null;
+    }
+
+    private void checkNotStarted() {
+        if (recordsRead > 0 || page > 1 || indexInPage > 0) {
+            throw new IllegalStateException("Query definition cannot be changed once iteration has started");
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.cxf.jaxrs.ext.search.client.CompleteCondition;
+import org.apache.cxf.jaxrs.ext.search.client.SearchConditionBuilder;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+
+/**
+ * Splits a single large query into disjoint partitions which can be fetched concurrently.
+ * <P>
+ * VCD evaluates every page request of a query from scratch, so fetching page {@code n} of a large
+ * result set costs roughly as much as fetching all preceding pages. Splitting the query by a
+ * filter into partitions keeps each partition's result set, and therefore its deepest page,
+ * small. Partitions are planned using cheap {@link Query#count() count} requests to balance their
+ * sizes:
+ * <ul>
+ * <li>{@link #planByDateRange(String, Date, Date, int)} recursively halves the time range holding
+ * the most records
+ * <li>{@link #planByValues(String, Collection, int)} groups the values of a field such as
+ * {@code org} or {@code vdc} into partitions of similar size
+ * <li>{@link #planByPrefix(String, Collection, int)} does the same for wildcard prefixes of a
+ * field such as {@code name}
+ * </ul>
+ * {@link #stream(List, int)} then runs the planned partitions concurrently and merges their
+ * results into a single stream:
+ *
+ * <pre>
+ *     final QueryPartitionPlanner&lt;QueryResultAdminTaskRecordType&gt; planner =
+ *             new QueryPartitionPlanner&lt;&gt;(
+ *                     () -&gt; vcdClient.getQuery("adminTask", QueryResultAdminTaskRecordType.class),
+ *                     "status==running");
+ *     final List&lt;String&gt; partitions = planner.planByDateRange("startDate", lastWeek, now, 8);
+ *     try (Stream&lt;QueryResultAdminTaskRecordType&gt; tasks = planner.stream(partitions, 4)) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * Every record matched by the base filter belongs to exactly one partition, except that records
+ * with no value for the partitioning field, or (for value and prefix plans) a value not in the
+ * planned set, are not matched by any partition. Results are merged in the order they arrive,
+ * so any sort order configured on the query only holds within a partition.
+ *
+ * @param <T>
+ *            query result type
+ * @since 9.1
+ */
+public class QueryPartitionPlanner<T> {
+    private static final int MERGE_QUEUE_CAPACITY = 4 * Query.DEFAULT_MAX_PAGE_SIZE;
+
+    private final Supplier<Query<T>> querySupplier;
+    private final String baseFilter;
+
+    /**
+     * @param querySupplier
+     *            supplies a freshly configured {@link Query} for each count request and partition;
+     *            the supplied query should not carry a filter or page
+     * @param baseFilter
+     *            URL encoded FIQL filter applied to every partition, or {@code null}
+     */
+    public QueryPartitionPlanner(final Supplier<Query<T>> querySupplier, final String baseFilter) {
+        if (querySupplier == null) {
+            throw new IllegalArgumentException("querySupplier");
+        }
+        this.querySupplier = querySupplier;
+        this.baseFilter = baseFilter;
+    }
+
+    /**
+     * Counts the records matching the base filter and the specified partition filter.
+     *
+     * @param partitionFilter
+     *            URL encoded FIQL filter or {@code null} to count all records matching the base
+     *            filter
+     * @return number of matching records
+     */
+    public long count(final String partitionFilter) {
+        return newQuery(partitionFilter).count();
+    }
+
+    /**
+     * Plans partitions over consecutive ranges of a date field.
+     * <P>
+     * Starting with the range from {@code from} to {@code to}, the range with the most records is
+     * halved until the requested number of partitions is reached or no range holds more than one
+     * page of records. The first and last partitions are open ended so that records dated
+     * outside the specified range are still included.
+     *
+     * @param field
+     *            name of a date field, for example {@code startDate}
+     * @param from
+     *            expected earliest date
+     * @param to
+     *            expected latest date
+     * @param partitions
+     *            maximum number of partitions to plan
+     * @return partition filters
+     */
+    public List<String> planByDateRange(final String field, final Date from, final Date to, final int partitions) {
+        if (from == null || to == null || !from.before(to)) {
+            throw new IllegalArgumentException("from/to");
+        }
+        checkPartitions(partitions);
+
+        // Boundaries of the ranges; range i spans [boundaries[i], boundaries[i + 1])
+        final List<Date> boundaries = new ArrayList<>();
+        boundaries.add(from);
+        boundaries.add(to);
+        final List<Long> counts = new ArrayList<>();
+        counts.add(count(null));
+
+        while (counts.size() < partitions) {
+            int largest = 0;
+            for (int i = 1; i < counts.size(); i++) {
+                if (counts.get(i) > counts.get(largest)) {
+                    largest = i;
+                }
+            }
+            final long lowerBound = boundaries.get(largest).getTime();
+            final long upperBound = boundaries.get(largest + 1).getTime();
+            if (counts.get(largest) <= Query.DEFAULT_MAX_PAGE_SIZE || upperBound - lowerBound < 2) {
+                break;
+            }
+
+            boundaries.add(largest + 1, new Date(lowerBound + (upperBound - lowerBound) / 2));
+            final long lowerCount = count(dateRangeFilter(field, boundaries, largest));
+            counts.add(largest + 1, Math.max(0, counts.get(largest) - lowerCount));
+            counts.set(largest, lowerCount);
+        }
+
+        final List<String> filters = new ArrayList<>(counts.size());
+        for (int i = 0; i < counts.size(); i++) {
+            filters.add(dateRangeFilter(field, boundaries, i));
+        }
+        return filters;
+    }
+
+    private static String dateRangeFilter(final String field, final List<Date> boundaries, final int range) {
+        final boolean first = range == 0;
+        final boolean last = range == boundaries.size() - 2;
+        final SearchConditionBuilder builder = Query.getFilterBuilder();
+        if (first && last) {
+            return null;
+        } else if (first) {
+            return builder.is(field).before(boundaries.get(range + 1)).query();
+        } else if (last) {
+            return builder.is(field).notBefore(boundaries.get(range)).query();
+        }
+        return builder.is(field).notBefore(boundaries.get(range))
+                .and(field).before(boundaries.get(range + 1)).query();
+    }
+
+    /**
+     * Plans partitions over the values of a field, for example the names or hrefs of the orgs or
+     * vdcs returned by a query of organizations or vdcs. Values are weighed by their record
+     * count and combined so that partition sizes are as even as possible.
+     *
+     * @param field
+     *            name of the field to match
+     * @param values
+     *            distinct values of the field, unencoded
+     * @param partitions
+     *            maximum number of partitions to plan
+     * @return partition filters
+     */
+    public List<String> planByValues(final String field, final Collection<String> values, final int partitions) {
+        checkPartitions(partitions);
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (final String value : values) {
+            counts.put(value, count(Query.getFilterBuilder().is(field).equalTo(value).query()));
+        }
+        return binPack(field, counts, partitions);
+    }
+
+    /**
+     * Plans partitions over prefixes of a string field, for example {@code a}, {@code b}, ...
+     * {@code z} and {@code 0} to {@code 9} for {@code name}. Prefixes must not overlap and are
+     * matched using VCD's {@code *} wildcard, which is case insensitive.
+     *
+     * @param field
+     *            name of the field to match
+     * @param prefixes
+     *            non-overlapping prefixes covering the expected values of the field
+     * @param partitions
+     *            maximum number of partitions to plan
+     * @return partition filters
+     */
+    public List<String> planByPrefix(final String field, final Collection<String> prefixes, final int partitions) {
+        checkPartitions(partitions);
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (final String prefix : prefixes) {
+            counts.put(prefix + "*", count(Query.getFilterBuilder().is(field).equalTo(prefix + "*").query()));
+        }
+        return binPack(field, counts, partitions);
+    }
+
+    /**
+     * Assigns each value, largest first, to the partition with the fewest records so far and
+     * returns an OR filter per non-empty partition.
+     */
+    private static List<String> binPack(final String field, final Map<String, Long> counts, final int partitions) {
+        final List<Map.Entry<String, Long>> byCount = new ArrayList<>(counts.entrySet());
+        byCount.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+
+        final int binCount = Math.min(partitions, byCount.size());
+        final List<List<String>> bins = new ArrayList<>(binCount);
+        final long[] binSizes = new long[binCount];
+        for (int i = 0; i < binCount; i++) {
+            bins.add(new ArrayList<>());
+        }
+        for (final Map.Entry<String, Long> entry : byCount) {
+            int smallest = 0;
+            for (int i = 1; i < binCount; i++) {
+                if (binSizes[i] < binSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            bins.get(smallest).add(entry.getKey());
+            binSizes[smallest] += entry.getValue();
+        }
+
+        final List<String> filters = new ArrayList<>(binCount);
+        for (final List<String> bin : bins) {
+            final String first = bin.get(0);
+            final String[] rest = bin.subList(1, bin.size()).toArray(new String[0]);
+            final CompleteCondition condition = Query.getFilterBuilder().is(field).equalTo(first, rest);
+            filters.add(rest.length == 0 ? condition.query() : condition.wrap().query());
+        }
+        return filters;
+    }
+
+    private static void checkPartitions(final int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions");
+        }
+    }
+
+    /**
+     * Executes a query per partition, up to {@code parallelism} at a time, and merges their
+     * results as they arrive.
+     * <P>
+     * Each partition is fetched with the maximum page size. At most a few pages of records are
+     * buffered ahead of the consumer. The returned stream should be closed if it is not consumed
+     * to completion, to stop outstanding partition queries.
+     *
+     * @param partitionFilters
+     *            partition filters as returned by one of the {@code planBy} methods
+     * @param parallelism
+     *            maximum number of partitions to fetch concurrently
+     * @return stream of the results of all partitions
+     * @throws RuntimeException
+     *             from the stream's terminal operation, if fetching any partition fails
+     */
+    public Stream<T> stream(final List<String> partitionFilters, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism");
+        }
+        final MergingIterator merger = new MergingIterator(partitionFilters, parallelism);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merger, Spliterator.NONNULL), false)
+                .onClose(merger::close);
+    }
+
+    private Query<T> newQuery(final String partitionFilter) {
+        final Query<T> query = querySupplier.get();
+        if (StringUtils.isEmpty(baseFilter)) {
+            return StringUtils.isEmpty(partitionFilter) ? query : query.setFilter(partitionFilter);
+        } else if (StringUtils.isEmpty(partitionFilter)) {
+            return query.setFilter(baseFilter);
+        }
+        return query.setFilter("(" + baseFilter + ");(" + partitionFilter + ")");
+    }
+
+    /**
+     * Pulls records from a queue fed by one producer task per partition.
+     */
+    private final class MergingIterator implements Iterator<T> {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(MERGE_QUEUE_CAPACITY);
+        private final ExecutorService executor;
+        private int remainingPartitions;
+        private Object next;
+
+        MergingIterator(final List<String> partitionFilters, final int parallelism) {
+            this.remainingPartitions = partitionFilters.size();
+            this.executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, remainingPartitions)),
+                    new PartitionThreadFactory());
+            for (final String filter : partitionFilters) {
+                executor.execute(() -> fetchPartition(filter));
+            }
+            executor.shutdown();
+        }
+
+        private void fetchPartition(final String filter) {
+            Object endMarker = PartitionEnd.INSTANCE;
+            try (final Stream<T> records = newQuery(filter).setPageSize(Query.DEFAULT_MAX_PAGE_SIZE).stream()) {
+                final Iterator<T> iterator = records.iterator();
+                while (iterator.hasNext()) {
+                    queue.put(iterator.next());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                endMarker = new PartitionFailure(e);
+            }
+            try {
+                queue.put(endMarker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && remainingPartitions > 0) {
+                final Object element;
+                try {
+                    element = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException("Interrupted while waiting for query results", e);
+                }
+                if (element instanceof PartitionFailure) {
+                    close();
+                    throw ((PartitionFailure) element).cause;
+                } else if (element == PartitionEnd.INSTANCE) {
+                    remainingPartitions--;
+                } else {
+                    next = element;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T result = (T) next;
+            next = null;
+            return result;
+        }
+
+        void close() {
+            remainingPartitions = 0;
+            executor.shutdownNow();
+            queue.clear();
+        }
+    }
+
+    private enum PartitionEnd {
+        INSTANCE
+    }
+
+    private static final class PartitionFailure {
+        private final RuntimeException cause;
+
+        PartitionFailure(final RuntimeException cause) {
+            this.cause = cause;
+        }
+    }
+
+    private static final class PartitionThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+        private final int pool = POOL_COUNTER.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,
+                    "query-partition-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
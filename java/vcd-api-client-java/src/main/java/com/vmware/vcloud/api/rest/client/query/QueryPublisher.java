@@ -0,0 +1,269 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.client.VcdClient.QueryListPage;
+
+/**
+ * A <a href="http://www.reactive-streams.org/">Reactive Streams</a> {@link Publisher} of the
+ * results of a query.
+ * <P>
+ * Pages are fetched on demand: nothing is requested from VCD until the subscriber first signals
+ * {@link Subscription#request(long) demand}, after which up to {@code prefetchPages} pages are
+ * fetched ahead of the subscriber and then fetching pauses until the subscriber has consumed a
+ * page. A slow subscriber therefore holds at most {@code prefetchPages} pages in memory, however
+ * many results the query has. {@link Subscription#cancel() Cancelling} stops any further fetches.
+ * <P>
+ * Each subscription executes the query afresh, with pages fetched one at a time on the
+ * publisher's {@link Executor}; records are delivered to the subscriber on the fetching thread or
+ * on the thread signalling demand.
+ *
+ * <pre>
+ *     final QueryPublisher&lt;QueryResultVMRecordType&gt; vms = new QueryPublisher&lt;&gt;(
+ *             () -&gt; vcdClient.getQuery("adminVM", QueryResultVMRecordType.class)
+ *                     .setPageSize(Query.DEFAULT_MAX_PAGE_SIZE),
+ *             executor, 2);
+ *     vms.subscribe(subscriber);
+ * </pre>
+ *
+ * The {@code java.util.concurrent.Flow} types of Java 9 can be adapted to and from this publisher
+ * with {@code org.reactivestreams.FlowAdapters}.
+ *
+ * @param <T>
+ *            query result type
+ * @since 9.1
+ */
+public class QueryPublisher<T> implements Publisher<T> {
+    private static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "query-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<Query<T>> querySupplier;
+    private final Executor executor;
+    private final int prefetchPages;
+
+    /**
+     * Creates a publisher fetching pages on a shared pool of daemon threads, with up to two pages
+     * fetched ahead of the subscriber.
+     */
+    public QueryPublisher(final Supplier<Query<T>> querySupplier) {
+        this(querySupplier, DEFAULT_EXECUTOR, DEFAULT_PREFETCH_PAGES);
+    }
+
+    /**
+     * @param querySupplier
+     *            supplies a freshly configured {@link Query} for each subscription
+     * @param executor
+     *            executor on which pages are fetched
+     * @param prefetchPages
+     *            maximum number of pages fetched but not yet fully delivered to the subscriber;
+     *            at least {@code 1}
+     */
+    public QueryPublisher(final Supplier<Query<T>> querySupplier, final Executor executor, final int prefetchPages) {
+        if (querySupplier == null) {
+            throw new IllegalArgumentException("querySupplier");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        if (prefetchPages < 1) {
+            throw new IllegalArgumentException("prefetchPages");
+        }
+        this.querySupplier = querySupplier;
+        this.executor = executor;
+        this.prefetchPages = prefetchPages;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final QuerySubscription subscription = new QuerySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Buffers fetched pages and delivers their records as demanded. All signals to the subscriber
+     * are issued from {@link #drain()}, which is entered by one thread at a time.
+     */
+    private final class QuerySubscription implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final Queue<List<T>> pages = new ConcurrentLinkedQueue<>();
+        // Pages queued or being delivered
+        private final AtomicInteger bufferedPages = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile boolean started;
+        private volatile boolean fetching;
+        private volatile boolean lastPageFetched;
+        private volatile Throwable failure;
+        private volatile IllegalArgumentException invalidRequest;
+
+        // Only accessed by the fetch task; fetches never overlap
+        private Iterator<QueryListPage<T>> pageIterator;
+
+        // Only accessed within drain()
+        private List<T> currentPage;
+        private int indexInPage;
+        private boolean terminated;
+
+        QuerySubscription(final Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException(
+                        "Non-positive request signals are illegal (Reactive Streams rule 3.9): " + n);
+            } else {
+                requested.getAndUpdate(r -> (r + n < 0) ? Long.MAX_VALUE : r + n);
+                started = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                drainOnce();
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (terminated) {
+                return;
+            }
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            if (invalidRequest != null) {
+                terminate();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+
+            final long demand = requested.get();
+            long emitted = 0;
+            while (emitted < demand) {
+                if (currentPage == null) {
+                    currentPage = pages.poll();
+                    indexInPage = 0;
+                    if (currentPage == null) {
+                        break;
+                    }
+                }
+                subscriber.onNext(currentPage.get(indexInPage++));
+                emitted++;
+                if (indexInPage >= currentPage.size()) {
+                    // Fully delivered; make room for another page to be fetched
+                    currentPage = null;
+                    bufferedPages.decrementAndGet();
+                }
+                if (cancelled) {
+                    terminate();
+                    return;
+                }
+            }
+            if (emitted > 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+
+            final boolean bufferEmpty = currentPage == null && pages.isEmpty();
+            if (lastPageFetched && bufferEmpty) {
+                terminate();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else {
+                    subscriber.onComplete();
+                }
+                return;
+            }
+
+            if (started && !lastPageFetched && !fetching && bufferedPages.get() < prefetchPages) {
+                fetching = true;
+                try {
+                    executor.execute(this::fetchPage);
+                } catch (RuntimeException e) {
+                    fetching = false;
+                    failure = e;
+                    lastPageFetched = true;
+                    terminate();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void fetchPage() {
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (pageIterator == null) {
+                    pageIterator = querySupplier.get().execute();
+                }
+                if (pageIterator.hasNext()) {
+                    final List<T> page = pageIterator.next().getPage();
+                    if (!page.isEmpty()) {
+                        pages.add(page);
+                        bufferedPages.incrementAndGet();
+                    }
+                }
+                if (!pageIterator.hasNext()) {
+                    lastPageFetched = true;
+                }
+            } catch (Throwable t) {
+                failure = t;
+                lastPageFetched = true;
+            } finally {
+                fetching = false;
+                drain();
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            cancelled = true;
+            pages.clear();
+            currentPage = null;
+        }
+    }
+}
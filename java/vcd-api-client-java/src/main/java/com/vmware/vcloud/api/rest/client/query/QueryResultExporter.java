@@ -0,0 +1,446 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.vmware.vcloud.api.rest.client.VcdClient.Query;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * Writes the results of a query to a file as newline delimited JSON or CSV.
+ * <P>
+ * Records are pulled one page at a time from {@link Query#stream()}, formatted and appended to a
+ * fixed size buffer which is written to a {@link FileChannel} whenever it fills up. No more than a
+ * single page of results and the write buffer are held in memory, regardless of how many records
+ * the query returns. The exported fields are also applied to the query as its
+ * {@link Query#setFields(java.util.Collection) field projection}, so VCD does not send attributes
+ * which would be discarded.
+ *
+ * <pre>
+ *     final QueryResultExporter exporter =
+ *             new QueryResultExporter(QueryResultExporter.Format.CSV, "name", "status", "vdc")
+ *                     .setGzip(true);
+ *     final ExportStatistics statistics =
+ *             exporter.export(vcdClient.getQuery("adminVM", QueryResultVMRecordType.class),
+ *                     Paths.get("vms.csv.gz"));
+ * </pre>
+ *
+ * Instances hold no state between exports and may be reused, including concurrently.
+ *
+ * @since 9.1
+ */
+public class QueryResultExporter {
+
+    /**
+     * Output file format.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line, keyed by field name. Numbers and booleans are written as JSON
+         * literals, dates in XML schema format and everything else as strings. Missing values are
+         * omitted.
+         */
+        NDJSON,
+
+        /**
+         * RFC 4180 comma separated values with a header row. Missing values are written as empty
+         * fields.
+         */
+        CSV
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final Format format;
+    private final List<String> fields;
+    private boolean gzip;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * @param format
+     *            output format
+     * @param fields
+     *            fields to export, in output order; at least one is required
+     */
+    public QueryResultExporter(final Format format, final String... fields) {
+        if (format == null) {
+            throw new IllegalArgumentException("format");
+        }
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("fields");
+        }
+        this.format = format;
+        this.fields = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(fields)));
+    }
+
+    /**
+     * Enables gzip compression of the output. Disabled by default.
+     *
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryResultExporter setGzip(final boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffer in front of the file channel. Defaults to 256 KiB.
+     *
+     * @return {@code this} instance to enable chaining of method invocations
+     */
+    public QueryResultExporter setBufferSize(final int bufferSize) {
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("bufferSize");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Executes the query and writes all of its results to the specified file, replacing the file
+     * if it exists.
+     *
+     * @param query
+     *            query to export; its field projection is replaced by this exporter's fields
+     * @param target
+     *            file to write
+     * @return statistics about the export
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public <T extends QueryResultRecordType> ExportStatistics export(final Query<T> query, final Path target)
+            throws IOException {
+        query.setFields(fields);
+        try (final FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                final Stream<T> records = query.stream()) {
+            return export(records, channel);
+        }
+    }
+
+    /**
+     * Writes the records in the stream to the channel, starting at the channel's current
+     * position. The channel is not closed.
+     *
+     * @return statistics about the export
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    public ExportStatistics export(final Stream<? extends QueryResultRecordType> records,
+            final FileChannel channel) throws IOException {
+        final long startNanos = System.nanoTime();
+        final long startPosition = channel.position();
+        final ChannelOutputStream channelOutput = new ChannelOutputStream(channel, bufferSize);
+        final DiscardableGzipOutputStream gzipOutput =
+                gzip ? new DiscardableGzipOutputStream(channelOutput, bufferSize) : null;
+        final OutputStream out = gzip ? gzipOutput : channelOutput;
+        boolean written = false;
+        try {
+            final StringBuilder line = new StringBuilder(256);
+            long recordCount = 0;
+            long uncompressedBytes = 0;
+            List<Function<Object, Object>> accessors = null;
+            Class<?> accessorClass = null;
+
+            if (format == Format.CSV) {
+                for (int i = 0; i < fields.size(); i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendCsv(line, fields.get(i));
+                }
+                uncompressedBytes += writeLine(out, line);
+            }
+
+            final Iterator<? extends QueryResultRecordType> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                final QueryResultRecordType record = iterator.next();
+                if (record.getClass() != accessorClass) {
+                    accessorClass = record.getClass();
+                    accessors = new ArrayList<>(fields.size());
+                    for (final String field : fields) {
+                        accessors.add(RecordFields.accessor(accessorClass, field));
+                    }
+                }
+                if (format == Format.CSV) {
+                    formatCsv(line, record, accessors);
+                } else {
+                    formatJson(line, record, accessors);
+                }
+                uncompressedBytes += writeLine(out, line);
+                recordCount++;
+            }
+
+            out.close();
+            written = true;
+            return new ExportStatistics(recordCount, uncompressedBytes, channel.position() - startPosition,
+                    System.nanoTime() - startNanos);
+        } finally {
+            if (!written && gzipOutput != null) {
+                // Closing would write the gzip trailer; just release the native compressor
+                gzipOutput.discard();
+            }
+        }
+    }
+
+    private int writeLine(final OutputStream out, final StringBuilder line) throws IOException {
+        line.append('\n');
+        final byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        line.setLength(0);
+        return bytes.length;
+    }
+
+    private void formatCsv(final StringBuilder line, final Object record,
+            final List<Function<Object, Object>> accessors) {
+        for (int i = 0; i < accessors.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            final Object value = accessors.get(i).apply(record);
+            if (value != null) {
+                appendCsv(line, toText(value));
+            }
+        }
+    }
+
+    private static void appendCsv(final StringBuilder line, final String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private void formatJson(final StringBuilder line, final Object record,
+            final List<Function<Object, Object>> accessors) {
+        line.append('{');
+        boolean first = true;
+        for (int i = 0; i < accessors.size(); i++) {
+            final Object value = accessors.get(i).apply(record);
+            if (value == null) {
+                continue;
+            }
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            appendJsonString(line, fields.get(i));
+            line.append(':');
+            if (value instanceof Boolean || (value instanceof Number && isFinite((Number) value))) {
+                line.append(value);
+            } else {
+                appendJsonString(line, toText(value));
+            }
+        }
+        line.append('}');
+    }
+
+    private static boolean isFinite(final Number number) {
+        return !(number instanceof Double || number instanceof Float) || Double.isFinite(number.doubleValue());
+    }
+
+    private static void appendJsonString(final StringBuilder line, final String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                line.append("\\\"");
+                break;
+            case '\\':
+                line.append("\\\\");
+                break;
+            case '\n':
+                line.append("\\n");
+                break;
+            case '\r':
+                line.append("\\r");
+                break;
+            case '\t':
+                line.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    private static String toText(final Object value) {
+        if (value instanceof XMLGregorianCalendar) {
+            return ((XMLGregorianCalendar) value).toXMLFormat();
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+
+    /**
+     * A {@link GZIPOutputStream} that can be abandoned without writing the rest of its output.
+     */
+    private static final class DiscardableGzipOutputStream extends GZIPOutputStream {
+        DiscardableGzipOutputStream(final OutputStream out, final int size) throws IOException {
+            super(out, size);
+        }
+
+        /**
+         * Releases the stream's compressor. The underlying stream is left open.
+         */
+        void discard() {
+            def.end();
+        }
+    }
+
+    /**
+     * Buffers writes to a {@link FileChannel} in a reusable direct {@link ByteBuffer}. Closing the
+     * stream flushes the buffer but leaves the channel open.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        ChannelOutputStream(final FileChannel channel, final int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                final int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Statistics about a completed export.
+     */
+    public static final class ExportStatistics {
+        private final long recordCount;
+        private final long uncompressedBytes;
+        private final long bytesWritten;
+        private final long elapsedNanos;
+
+        ExportStatistics(final long recordCount, final long uncompressedBytes, final long bytesWritten,
+                final long elapsedNanos) {
+            this.recordCount = recordCount;
+            this.uncompressedBytes = uncompressedBytes;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of records exported
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return size of the formatted output before compression
+         */
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        /**
+         * @return number of bytes written to the file
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return time taken by the export, including time spent waiting for VCD
+         */
+        public long getElapsed(final TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : recordCount * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return rate at which formatted output was produced, in bytes per second
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : uncompressedBytes * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %d bytes (%d written) in %d ms: %.1f records/s, %.1f KiB/s",
+                    recordCount, uncompressedBytes, bytesWritten, getElapsed(TimeUnit.MILLISECONDS),
+                    getRecordsPerSecond(), getBytesPerSecond() / 1024);
+        }
+    }
+}
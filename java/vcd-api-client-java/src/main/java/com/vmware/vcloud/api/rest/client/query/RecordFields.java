@@ -0,0 +1,107 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client.query;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.xml.namespace.QName;
+
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+
+/**
+ * Resolves query fields (as named in the {@code fields}, {@code filter} and {@code sortAsc}
+ * query parameters) to accessors on the JAXB-generated {@link QueryResultRecordType} classes.
+ * <P>
+ * A field is resolved, in order, to a {@code getXxx()} or {@code isXxx()} method of the record
+ * class and, failing that, to the record's {@link QueryResultRecordType#getOtherAttributes() other
+ * attributes} which is where VCD places attributes unknown to the bindings. Resolved accessors are
+ * cached per record class.
+ *
+ * @since 9.1
+ */
+public final class RecordFields {
+    private static final Map<Class<?>, Map<String, Function<Object, Object>>> ACCESSORS =
+            new ConcurrentHashMap<>();
+
+    private RecordFields() {}
+
+    /**
+     * Returns an accessor for the specified field of the specified record class.
+     *
+     * @param recordClass
+     *            JAXB-generated query result record class
+     * @param fieldName
+     *            name of the query field
+     * @return a {@link Function} extracting the field's value from a record, or {@code null} if the
+     *         record does not carry the field
+     */
+    public static Function<Object, Object> accessor(final Class<?> recordClass, final String fieldName) {
+        return ACCESSORS.computeIfAbsent(recordClass, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(fieldName, f -> makeAccessor(recordClass, f));
+    }
+
+    /**
+     * Convenience wrapper over {@link #accessor(Class, String)} that reads a field from a record.
+     */
+    public static Object get(final Object record, final String fieldName) {
+        return accessor(record.getClass(), fieldName).apply(record);
+    }
+
+    /**
+     * Returns the Java type of the specified field as exposed by the record class's getter, or
+     * {@link String} if the field is only available as an other attribute.
+     */
+    public static Class<?> type(final Class<?> recordClass, final String fieldName) {
+        final Method getter = findGetter(recordClass, fieldName);
+        return getter == null ? String.class : getter.getReturnType();
+    }
+
+    private static Function<Object, Object> makeAccessor(final Class<?> recordClass, final String fieldName) {
+        final Method getter = findGetter(recordClass, fieldName);
+        if (getter != null) {
+            return record -> invoke(getter, record);
+        }
+
+        final QName attributeName = new QName(fieldName);
+        return record -> (record instanceof QueryResultRecordType)
+                ? ((QueryResultRecordType) record).getOtherAttributes().get(attributeName)
+                : null;
+    }
+
+    private static Method findGetter(final Class<?> recordClass, final String fieldName) {
+        if (fieldName == null || fieldName.isEmpty()) {
+            throw new IllegalArgumentException("fieldName");
+        }
+        final String suffix = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+        for (final String prefix : new String[] { "get", "is" }) {
+            try {
+                final Method method = recordClass.getMethod(prefix + suffix);
+                if (method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // try next prefix
+            }
+        }
+        return null;
+    }
+
+    private static Object invoke(final Method getter, final Object record) {
+        try {
+            return getter.invoke(record);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to read " + getter.getName() + " of " + record.getClass(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to read " + getter.getName() + " of " + record.getClass(),
+                    e.getCause());
+        }
+    }
+}
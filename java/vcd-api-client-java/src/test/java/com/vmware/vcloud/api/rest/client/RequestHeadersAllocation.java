@@ -0,0 +1,90 @@
+/* **********************************************************************
+ * api-extension-template-vcloud-director
+ * Copyright 2018 VMware, Inc.
+ * SPDX-License-Identifier: BSD-2-Clause
+ * *********************************************************************/
+
+package com.vmware.vcloud.api.rest.client;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.vmware.cxfrestclient.CxfClientSecurityContext;
+import com.vmware.vcloud.api.rest.client.constants.RestConstants;
+
+import org.apache.cxf.jaxrs.client.Client;
+import org.apache.cxf.jaxrs.client.WebClient;
+
+/**
+ * Measures the bytes allocated per request by
+ * {@link AbstractVcdClientBase#configureHttpRequestHeaders(Client)} with the headers
+ * {@link VcdClientImpl} prepares once per session, against the same headers computed afresh for
+ * every request as they were before.
+ * <P>
+ * Run its {@code main} method with the module's test classpath, optionally passing the number of
+ * calls to average over. No request is sent and no session is established, so the figures leave
+ * out the session's authentication header and cookies, which are also prepared once per session.
+ *
+ * @since 9.1
+ */
+public class RequestHeadersAllocation {
+    private static final int DEFAULT_CALLS = 100_000;
+
+    public static void main(final String[] args) {
+        final int calls = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CALLS;
+
+        final VcdClientImpl vcdClient = new VcdClientImpl(URI.create("https://vcd.example.com/api"), "31.0",
+                CxfClientSecurityContext.getDefaultCxfClientSecurityContext());
+        vcdClient.setOrgContextHeader("a93c9db9-7471-3192-8d09-a8f7eeda85f9");
+        vcdClient.setMultisiteRequests(true);
+        final WebClient client = WebClient.create("https://vcd.example.com/api");
+
+        final Consumer<WebClient> none = c -> {};
+        final Consumer<WebClient> perRequest = c -> configureHeadersPerRequest(vcdClient, c);
+        final Consumer<WebClient> prepared = vcdClient::configureHttpRequestHeaders;
+
+        // Warm up, so that class loading and compilation are not counted
+        for (final Consumer<WebClient> configure : Arrays.asList(none, perRequest, prepared)) {
+            allocatedBytesPerCall(client, configure, calls);
+        }
+
+        final long baseline = allocatedBytesPerCall(client, none, calls);
+        final long before = allocatedBytesPerCall(client, perRequest, calls) - baseline;
+        final long after = allocatedBytesPerCall(client, prepared, calls) - baseline;
+        System.out.printf("Headers computed per request: %d bytes allocated per request%n", before);
+        System.out.printf("Headers prepared per session: %d bytes allocated per request%n", after);
+    }
+
+    /**
+     * Configures a request's headers the way
+     * {@link AbstractVcdClientBase#configureHttpRequestHeaders(Client)} did before headers were
+     * prepared: formatting the accept header and building the authentication headers anew.
+     */
+    private static void configureHeadersPerRequest(final VcdClientImpl vcdClient, final Client client) {
+        client.accept(vcdClient.getAcceptHeaders());
+        vcdClient.setAuthenticationHeader(client);
+        if (vcdClient.getOrgContextHeader() != null) {
+            client.header(RestConstants.VCLOUD_ORG_CONTEXT_HEADER, vcdClient.getOrgContextHeader());
+        }
+    }
+
+    /**
+     * @return average bytes allocated by the current thread per call of {@code configure}, with the
+     *         client's headers reset before each call
+     */
+    private static long allocatedBytesPerCall(final WebClient client, final Consumer<WebClient> configure,
+            final int calls) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            client.reset();
+            configure.accept(client);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - start) / calls;
+    }
+}